@@ -0,0 +1,228 @@
+/*
+    AnalysisTap.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Copies every block of spout output into a lock-free single-producer,
+ * single-consumer ring and runs attached {@link AudioMeter}s over it on a
+ * separate analysis thread.
+ *
+ * The thread performing Csound only pays for one copy of the spout buffer
+ * per block, however many meters are attached. If the analysis thread falls
+ * behind and the ring fills, blocks are dropped rather than blocking the
+ * performing thread; see getDroppedBlocks().
+ *
+ * The ring and the meters are sized for the engine the tap was created
+ * with. After the Csound instance is reset and restarted, the tap follows
+ * the new engine's spout buffer if sr, ksmps and nchnls are unchanged;
+ * otherwise every block is dropped and a new tap should be created.
+ *
+ * <pre>
+ * var levels = new LevelMeter(0.3);
+ * var tap = new AnalysisTap(csound, 64);
+ * tap.add(levels);
+ * csound.addPerformHook(tap);
+ * ...
+ * levels.read(peakAndRms);
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class AnalysisTap implements PerformHook, AutoCloseable {
+
+    private final Csound csound;
+    private final EngineInfo info;
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment[] slots;
+    private final int capacity;
+    private final long blockBytes;
+    private final long allocatedBytes;
+    private final long idleNanos;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final HookGate gate = new HookGate();
+    private volatile AudioMeter[] meters = new AudioMeter[0];
+    private volatile boolean running = true;
+    private final Thread analysisThread;
+
+    // only accessed from performing thread
+    private EngineInfo boundEngine;
+    private MemorySegment spout;
+
+    /**
+     * Creates a tap for a started Csound instance and starts its analysis
+     * thread. Add the tap with csound.addPerformHook() to begin analysis.
+     *
+     * @param csound     started Csound instance
+     * @param ringBlocks number of blocks the ring can hold
+     */
+    public AnalysisTap(Csound csound, int ringBlocks) {
+        if (ringBlocks < 1) {
+            throw new IllegalArgumentException("ringBlocks must be at least 1");
+        }
+        this.csound = csound;
+        this.info = csound.getEngineInfo();
+        this.boundEngine = info;
+        this.spout = info.spout();
+        this.capacity = ringBlocks;
+        this.blockBytes = Csound.getMyfltLayout().byteSize() * info.ksmps() * info.nchnls();
+        MemorySegment ring = arena.allocate(blockBytes * ringBlocks, Csound.getMyfltLayout().byteAlignment());
+        this.allocatedBytes = ring.byteSize();
+        csound.memoryAccount().allocated(allocatedBytes);
+        this.slots = new MemorySegment[ringBlocks];
+        for (int i = 0; i < ringBlocks; i++) {
+            slots[i] = ring.asSlice(i * blockBytes, blockBytes);
+        }
+        this.idleNanos = Math.max(1, (long) (info.ksmps() * 1_000_000_000.0 / info.sr()));
+
+        this.analysisThread = Thread.ofPlatform().name("csound-analysis-tap").daemon()
+                .start(this::analyse);
+    }
+
+    /**
+     * Attaches a meter. The meter is initialised on the calling thread and
+     * receives every block copied after it is added.
+     *
+     * @param meter meter to attach
+     */
+    public synchronized void add(AudioMeter meter) {
+        meter.init(info);
+        AudioMeter[] updated = Arrays.copyOf(meters, meters.length + 1);
+        updated[updated.length - 1] = meter;
+        meters = updated;
+    }
+
+    /**
+     * Detaches a meter.
+     *
+     * @param meter meter to detach
+     */
+    public synchronized void remove(AudioMeter meter) {
+        meters = Arrays.stream(meters)
+                .filter(m -> m != meter)
+                .toArray(AudioMeter[]::new);
+    }
+
+    /**
+     * Returns the number of blocks dropped because the ring was full.
+     *
+     * @return number of dropped blocks
+     */
+    public long getDroppedBlocks() {
+        return dropped.get();
+    }
+
+    @Override
+    public void afterPerformKsmps(Csound csound) {
+        if (!gate.enter()) {
+            return;
+        }
+        try {
+            copyBlock(csound);
+        } finally {
+            gate.exit();
+        }
+    }
+
+    private void copyBlock(Csound csound) {
+        EngineInfo current = csound.getEngineInfo();
+        if (current != boundEngine) {
+            boundEngine = current;
+            spout = sameShape(current) ? current.spout() : null;
+        }
+        if (spout == null) {
+            dropped.incrementAndGet();
+            return;
+        }
+        long h = head.get();
+        if (h - tail.get() >= capacity) {
+            dropped.incrementAndGet();
+            return;
+        }
+        MemorySegment.copy(spout, 0, slots[(int) (h % capacity)], 0, blockBytes);
+        head.lazySet(h + 1);
+    }
+
+    private boolean sameShape(EngineInfo other) {
+        return other.sr() == info.sr() && other.ksmps() == info.ksmps()
+                && other.nchnls() == info.nchnls();
+    }
+
+    private void analyse() {
+        int frames = info.ksmps();
+        int channels = info.nchnls();
+        long t = tail.get();
+
+        while (running) {
+            long h = head.get();
+            if (t == h) {
+                LockSupport.parkNanos(idleNanos);
+                continue;
+            }
+            while (t < h) {
+                MemorySegment block = slots[(int) (t % capacity)];
+                for (AudioMeter meter : meters) {
+                    try {
+                        meter.process(block, frames, channels);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                }
+                t++;
+                tail.lazySet(t);
+            }
+        }
+    }
+
+    /**
+     * Removes the tap from its Csound instance, waits for a block copy in
+     * progress on the performing thread, stops the analysis thread and frees
+     * the ring. May be called from any thread; calling close() more than once
+     * has no effect.
+     */
+    @Override
+    public void close() {
+        csound.removePerformHook(this);
+        if (!gate.close()) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(analysisThread);
+        try {
+            analysisThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        arena.close();
+        csound.memoryAccount().released(allocatedBytes);
+    }
+}
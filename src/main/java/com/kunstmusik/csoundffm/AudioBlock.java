@@ -0,0 +1,125 @@
+/*
+    AudioBlock.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A pooled block of interleaved audio published by
+ * {@link AudioBlockPublisher}. Each block holds one ksmps worth of spout
+ * output. Subscribers must call release() once they are finished with a
+ * block so that it can be reused for later output; the data segment must
+ * not be accessed after release(). Blocks still held when a subscription is
+ * cancelled are released on the subscriber's behalf, and a later release()
+ * of such a block has no effect.
+ *
+ * @author Steven Yi
+ */
+public final class AudioBlock {
+
+    private final AudioBlockPublisher.BlockSubscription subscription;
+    private final AudioBlockPublisher.BlockBuffer buffer;
+    private final int frames;
+    private final int channels;
+    private final AtomicBoolean held = new AtomicBoolean();
+    private long sequence;
+
+    AudioBlock(AudioBlockPublisher.BlockSubscription subscription,
+            AudioBlockPublisher.BlockBuffer buffer, int frames, int channels) {
+        this.subscription = subscription;
+        this.buffer = buffer;
+        this.frames = frames;
+        this.channels = channels;
+    }
+
+    /**
+     * Returns the interleaved sample data of this block. Samples are stored
+     * as MYFLT (see {@link Csound#getMyfltLayout()}).
+     *
+     * @return MemorySegment of frames * channels samples
+     */
+    public MemorySegment data() {
+        return buffer.data;
+    }
+
+    /**
+     * Returns the number of sample frames in this block (ksmps).
+     *
+     * @return number of sample frames
+     */
+    public int frames() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of interleaved channels in this block (nchnls).
+     *
+     * @return number of channels
+     */
+    public int channels() {
+        return channels;
+    }
+
+    /**
+     * Returns the index of this block since rendering started. The first
+     * rendered block has sequence 0.
+     *
+     * @return block sequence number
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Releases this subscriber's hold on the block. When every subscriber that
+     * received the block has released it, it is returned to the pool.
+     */
+    public void release() {
+        if (!revoke()) {
+            if (subscription.isCancelled()) {
+                return;
+            }
+            throw new IllegalStateException("AudioBlock released more times than it was delivered");
+        }
+    }
+
+    void hold(long sequence) {
+        this.sequence = sequence;
+        held.set(true);
+    }
+
+    /**
+     * Drops the hold if it is still taken and returns the buffer's share.
+     * Exactly one of the subscriber and a concurrent cancel() succeeds.
+     *
+     * @return true if this call released the hold
+     */
+    boolean revoke() {
+        if (held.compareAndSet(true, false)) {
+            subscription.publisher().releaseBuffer(buffer);
+            return true;
+        }
+        return false;
+    }
+}
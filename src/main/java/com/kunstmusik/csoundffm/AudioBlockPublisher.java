@@ -0,0 +1,365 @@
+/*
+    AudioBlockPublisher.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes the output of a started Csound instance as a stream of pooled
+ * {@link AudioBlock}s.
+ *
+ * Rendering happens on a dedicated thread that calls performKsmps() only when
+ * every current subscriber has outstanding demand and a free block is
+ * available in the pool. Rendering therefore runs as fast as the slowest
+ * subscriber consumes blocks, which may be faster than realtime, and never
+ * buffers more than the pool size. Each block is delivered to all
+ * subscribers and returns to the pool once all of them have called
+ * {@link AudioBlock#release()}.
+ *
+ * Blocks are delivered on the render thread, so subscribers should hand off
+ * any slow work rather than doing it in onNext(). Cancelling a subscription
+ * releases every block it still holds.
+ *
+ * <pre>
+ * var publisher = new AudioBlockPublisher(csound, 8);
+ * publisher.subscribe(encoder);
+ * publisher.start();
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class AudioBlockPublisher implements Flow.Publisher<AudioBlock>, AutoCloseable {
+
+    private final Csound csound;
+    private final Arena arena = Arena.ofShared();
+    private final BlockBuffer[] buffers;
+    private final ArrayDeque<BlockBuffer> pool;
+    private final int frames;
+    private final int channels;
+    private final long blockBytes;
+    private final long allocatedBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+
+    // guarded by lock
+    private BlockSubscription[] subscriptions = new BlockSubscription[0];
+    private boolean running = false;
+    private boolean closed = false;
+    private Thread renderThread = null;
+
+    /**
+     * Pooled sample memory shared by all subscribers' views of one block.
+     */
+    static final class BlockBuffer {
+        final int index;
+        final MemorySegment data;
+        final AtomicInteger refCount = new AtomicInteger();
+
+        BlockBuffer(int index, MemorySegment data) {
+            this.index = index;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Creates a publisher for the given Csound instance. start() must have
+     * been called on the Csound instance before creating the publisher.
+     *
+     * @param csound   started Csound instance to render
+     * @param poolSize number of blocks in the pool; limits how many blocks
+     *                 may be in flight at once
+     */
+    public AudioBlockPublisher(Csound csound, int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        EngineInfo info = csound.getEngineInfo();
+        this.csound = csound;
+        this.frames = info.ksmps();
+        this.channels = info.nchnls();
+        this.blockBytes = Csound.getMyfltLayout().byteSize() * frames * channels;
+        this.buffers = new BlockBuffer[poolSize];
+        this.pool = new ArrayDeque<>(poolSize);
+
+        for (int i = 0; i < poolSize; i++) {
+            MemorySegment data = arena.allocate(blockBytes, Csound.getMyfltLayout().byteAlignment());
+            buffers[i] = new BlockBuffer(i, data);
+            pool.add(buffers[i]);
+        }
+        this.allocatedBytes = blockBytes * poolSize;
+        csound.memoryAccount().allocated(allocatedBytes);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super AudioBlock> subscriber) {
+        var subscription = new BlockSubscription(subscriber);
+        boolean accepted;
+        lock.lock();
+        try {
+            accepted = !closed;
+            if (accepted) {
+                subscriptions = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+                subscriptions[subscriptions.length - 1] = subscription;
+            }
+        } finally {
+            lock.unlock();
+        }
+        subscriber.onSubscribe(subscription);
+        if (!accepted) {
+            subscriber.onComplete();
+        }
+    }
+
+    /**
+     * Starts the render thread. Blocks are rendered once subscribers request
+     * them.
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (running || closed) {
+                return;
+            }
+            running = true;
+            renderThread = Thread.ofPlatform().name("csound-block-publisher").start(this::render);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops rendering, completes all subscribers and frees the block pool.
+     * Blocks must not be accessed after this method returns. Calling close()
+     * more than once has no effect.
+     */
+    @Override
+    public void close() {
+        Thread thread;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            running = false;
+            thread = renderThread;
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (thread == null) {
+            // never started, so no render thread will complete subscribers
+            completeAll(null);
+        } else if (thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        arena.close();
+        csound.memoryAccount().released(allocatedBytes);
+    }
+
+    private void render() {
+        long sequence = 0;
+        BlockSubscription[] targets = null;
+        try {
+            MemorySegment spout = csound.getSpout();
+
+            while (true) {
+                BlockBuffer buffer;
+                lock.lock();
+                try {
+                    while (running && !canRender()) {
+                        ready.await();
+                    }
+                    if (!running) {
+                        break;
+                    }
+                    buffer = pool.poll();
+                    targets = subscriptions;
+                    for (BlockSubscription s : targets) {
+                        s.demand--;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (csound.performKsmps() != 0) {
+                    recycle(buffer);
+                    break;
+                }
+
+                MemorySegment.copy(spout, 0, buffer.data, 0, blockBytes);
+                buffer.refCount.set(targets.length);
+                for (BlockSubscription s : targets) {
+                    s.views[buffer.index].hold(sequence);
+                }
+                sequence++;
+                for (BlockSubscription s : targets) {
+                    AudioBlock view = s.views[buffer.index];
+                    if (s.isCancelled()) {
+                        // cancelled after the targets were taken
+                        view.revoke();
+                    } else {
+                        s.subscriber.onNext(view);
+                    }
+                }
+            }
+            completeAll(null);
+        } catch (Throwable t) {
+            completeAll(t);
+        }
+    }
+
+    // called with lock held
+    private boolean canRender() {
+        if (subscriptions.length == 0 || pool.isEmpty()) {
+            return false;
+        }
+        for (BlockSubscription s : subscriptions) {
+            if (s.demand <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void completeAll(Throwable error) {
+        BlockSubscription[] targets;
+        lock.lock();
+        try {
+            running = false;
+            targets = subscriptions;
+            subscriptions = new BlockSubscription[0];
+        } finally {
+            lock.unlock();
+        }
+        for (BlockSubscription s : targets) {
+            if (error == null) {
+                s.subscriber.onComplete();
+            } else {
+                s.subscriber.onError(error);
+            }
+        }
+    }
+
+    void releaseBuffer(BlockBuffer buffer) {
+        if (buffer.refCount.decrementAndGet() == 0) {
+            recycle(buffer);
+        }
+    }
+
+    private void recycle(BlockBuffer buffer) {
+        lock.lock();
+        try {
+            pool.add(buffer);
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(BlockSubscription subscription) {
+        lock.lock();
+        try {
+            int index = Arrays.asList(subscriptions).indexOf(subscription);
+            if (index >= 0) {
+                BlockSubscription[] updated = new BlockSubscription[subscriptions.length - 1];
+                System.arraycopy(subscriptions, 0, updated, 0, index);
+                System.arraycopy(subscriptions, index + 1, updated, index, updated.length - index);
+                subscriptions = updated;
+                ready.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    final class BlockSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super AudioBlock> subscriber;
+        // this subscriber's view of each pooled buffer
+        private final AudioBlock[] views;
+        private volatile boolean cancelled = false;
+
+        // guarded by lock
+        private long demand = 0;
+
+        BlockSubscription(Flow.Subscriber<? super AudioBlock> subscriber) {
+            this.subscriber = subscriber;
+            this.views = new AudioBlock[buffers.length];
+            for (int i = 0; i < buffers.length; i++) {
+                views[i] = new AudioBlock(this, buffers[i], frames, channels);
+            }
+        }
+
+        AudioBlockPublisher publisher() {
+            return AudioBlockPublisher.this;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("request must be positive: " + n));
+                return;
+            }
+            lock.lock();
+            try {
+                demand += n;
+                if (demand < 0) {
+                    demand = Long.MAX_VALUE;
+                }
+                ready.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Removes the subscription and releases every block it still holds.
+         */
+        @Override
+        public void cancel() {
+            cancelled = true;
+            remove(this);
+            for (AudioBlock view : views) {
+                view.revoke();
+            }
+        }
+    }
+}
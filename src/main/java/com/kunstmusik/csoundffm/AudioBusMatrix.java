@@ -0,0 +1,302 @@
+/*
+    AudioBusMatrix.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SequenceLayout;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps many named audio channels onto two contiguous planar off-heap
+ * buffers, one for input buses and one for output buses.
+ *
+ * Channel pointers are looked up when the matrix is created, and again on
+ * the first cycle after the Csound instance is reset and restarted; if the
+ * new engine has a different ksmps or a channel cannot be created, the
+ * matrix stops copying until it is replaced. When the
+ * matrix is added as a {@link PerformHook}, the input buffer is copied into
+ * the input channels before each performKsmps() and the output channels are
+ * copied into the output buffer afterwards, one bulk MemorySegment.copy per
+ * bus. Each buffer holds one ksmps block per bus, bus after bus, so a whole
+ * set of stems can be written to disk or sent on with a single buffer per
+ * block.
+ *
+ * <pre>
+ * var stems = new AudioBusMatrix(csound, new String[0],
+ *         new String[] { "drums", "bass", "keys" });
+ * csound.addPerformHook(stems);
+ * while (csound.performKsmps() == 0) {
+ *     writer.write(stems.getOutputBuffer());
+ * }
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class AudioBusMatrix implements PerformHook, AutoCloseable {
+
+    private final Csound csound;
+    private final Arena arena = Arena.ofShared();
+    private final HookGate gate = new HookGate();
+    private final int frames;
+    private final long busBytes;
+    private final long allocatedBytes;
+
+    private final String[] inputNames;
+    private final String[] outputNames;
+    private final MemorySegment[] inputPtrs;
+    private final MemorySegment[] outputPtrs;
+    private final MemorySegment inputBuffer;
+    private final MemorySegment outputBuffer;
+    private final MemorySegment[] inputBuses;
+    private final MemorySegment[] outputBuses;
+
+    // only accessed from performing thread
+    private EngineInfo boundEngine;
+    private boolean active = true;
+
+    /**
+     * Creates a matrix for a started Csound instance.
+     *
+     * @param csound      started Csound instance
+     * @param inputBuses  names of audio channels written into Csound
+     * @param outputBuses names of audio channels read from Csound
+     */
+    public AudioBusMatrix(Csound csound, String[] inputBuses, String[] outputBuses) {
+        this.csound = csound;
+        this.boundEngine = csound.getEngineInfo();
+        this.frames = boundEngine.ksmps();
+        this.busBytes = Csound.getMyfltLayout().byteSize() * frames;
+
+        this.inputNames = inputBuses.clone();
+        this.outputNames = outputBuses.clone();
+        this.inputPtrs = new MemorySegment[inputNames.length];
+        this.outputPtrs = new MemorySegment[outputNames.length];
+        boolean inputsResolved = resolve(inputNames, inputPtrs);
+        boolean outputsResolved = resolve(outputNames, outputPtrs);
+        if (!inputsResolved || !outputsResolved) {
+            throw new IllegalArgumentException("Unable to get audio channels: "
+                    + String.join(", ", unresolved()));
+        }
+
+        this.inputBuffer = allocate(inputNames.length);
+        this.outputBuffer = allocate(outputNames.length);
+        this.inputBuses = slice(inputBuffer, inputNames.length);
+        this.outputBuses = slice(outputBuffer, outputNames.length);
+        this.allocatedBytes = inputBuffer.byteSize() + outputBuffer.byteSize();
+        csound.memoryAccount().allocated(allocatedBytes);
+    }
+
+    private boolean resolve(String[] names, MemorySegment[] ptrs) {
+        boolean resolved = true;
+        for (int i = 0; i < names.length; i++) {
+            ptrs[i] = csound.getAudioChannelPtr(names[i]);
+            resolved &= ptrs[i] != null;
+        }
+        return resolved;
+    }
+
+    private List<String> unresolved() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < inputPtrs.length; i++) {
+            if (inputPtrs[i] == null) {
+                names.add(inputNames[i]);
+            }
+        }
+        for (int i = 0; i < outputPtrs.length; i++) {
+            if (outputPtrs[i] == null) {
+                names.add(outputNames[i]);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Looks up the channel pointers again if a new engine has started.
+     *
+     * @return true if the pointers are valid for the current engine
+     */
+    private boolean bind(Csound csound) {
+        EngineInfo current = csound.getEngineInfo();
+        if (current != boundEngine) {
+            boundEngine = current;
+            active = current.ksmps() == frames
+                    && resolve(inputNames, inputPtrs)
+                    && resolve(outputNames, outputPtrs);
+        }
+        return active;
+    }
+
+    private MemorySegment allocate(int buses) {
+        return arena.allocate(Math.max(1, busBytes * buses), Csound.getMyfltLayout().byteAlignment());
+    }
+
+    private MemorySegment[] slice(MemorySegment buffer, int buses) {
+        MemorySegment[] slices = new MemorySegment[buses];
+        for (int i = 0; i < buses; i++) {
+            slices[i] = buffer.asSlice(i * busBytes, busBytes);
+        }
+        return slices;
+    }
+
+    @Override
+    public void beforePerformKsmps(Csound csound) {
+        if (!gate.enter()) {
+            return;
+        }
+        try {
+            if (bind(csound)) {
+                for (int i = 0; i < inputPtrs.length; i++) {
+                    MemorySegment.copy(inputBuffer, i * busBytes, inputPtrs[i], 0, busBytes);
+                }
+            }
+        } finally {
+            gate.exit();
+        }
+    }
+
+    @Override
+    public void afterPerformKsmps(Csound csound) {
+        if (!gate.enter()) {
+            return;
+        }
+        try {
+            if (bind(csound)) {
+                for (int i = 0; i < outputPtrs.length; i++) {
+                    MemorySegment.copy(outputPtrs[i], 0, outputBuffer, i * busBytes, busBytes);
+                }
+            }
+        } finally {
+            gate.exit();
+        }
+    }
+
+    /**
+     * Returns the planar input buffer: ksmps MYFLTs for each input bus, in
+     * the order the buses were given. Write into it before each
+     * performKsmps().
+     *
+     * @return planar input buffer
+     */
+    public MemorySegment getInputBuffer() {
+        return inputBuffer;
+    }
+
+    /**
+     * Returns the planar output buffer: ksmps MYFLTs for each output bus, in
+     * the order the buses were given. Filled after each performKsmps().
+     *
+     * @return planar output buffer
+     */
+    public MemorySegment getOutputBuffer() {
+        return outputBuffer;
+    }
+
+    /**
+     * Returns the slice of the input buffer for one bus.
+     *
+     * @param bus input bus index
+     * @return ksmps MYFLTs of the bus
+     */
+    public MemorySegment getInputBus(int bus) {
+        return inputBuses[bus];
+    }
+
+    /**
+     * Returns the slice of the output buffer for one bus.
+     *
+     * @param bus output bus index
+     * @return ksmps MYFLTs of the bus
+     */
+    public MemorySegment getOutputBus(int bus) {
+        return outputBuses[bus];
+    }
+
+    /**
+     * Returns the index of an input bus by channel name.
+     *
+     * @param channelName Name of audio channel
+     * @return bus index, or -1 if not an input bus
+     */
+    public int indexOfInput(String channelName) {
+        return indexOf(inputNames, channelName);
+    }
+
+    /**
+     * Returns the index of an output bus by channel name.
+     *
+     * @param channelName Name of audio channel
+     * @return bus index, or -1 if not an output bus
+     */
+    public int indexOfOutput(String channelName) {
+        return indexOf(outputNames, channelName);
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the memory layout of the output buffer as a sequence of buses,
+     * each a sequence of ksmps MYFLTs. Useful for creating strided VarHandles,
+     * for example to read one frame across all buses.
+     *
+     * @return layout of the output buffer
+     */
+    public SequenceLayout getOutputLayout() {
+        return MemoryLayout.sequenceLayout(outputNames.length,
+                MemoryLayout.sequenceLayout(frames, Csound.getMyfltLayout()));
+    }
+
+    /**
+     * Returns the number of sample frames per bus (ksmps).
+     *
+     * @return frames per bus
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * Removes the matrix from its Csound instance, waits for a gather or
+     * scatter in progress on the performing thread and frees its buffers.
+     * May be called from any thread; calling close() more than once has no
+     * effect.
+     */
+    @Override
+    public void close() {
+        csound.removePerformHook(this);
+        if (!gate.close()) {
+            return;
+        }
+        arena.close();
+        csound.memoryAccount().released(allocatedBytes);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+    AudioMeter.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Analysis stage attached to an {@link AnalysisTap}. Meters run on the tap's
+ * analysis thread, never on the thread performing Csound, and should keep all
+ * of their working state preallocated in init().
+ *
+ * @author Steven Yi
+ */
+public interface AudioMeter {
+
+    /**
+     * Called once when the meter is added to a tap, before any blocks are
+     * processed.
+     *
+     * @param info engine constants of the Csound instance being analysed
+     */
+    public void init(EngineInfo info);
+
+    /**
+     * Processes one block of interleaved spout output.
+     *
+     * @param block    interleaved MYFLT samples, frames * channels long
+     * @param frames   number of sample frames (ksmps)
+     * @param channels number of channels (nchnls)
+     */
+    public void process(MemorySegment block, int frames, int channels);
+}
@@ -0,0 +1,266 @@
+/*
+    AutomationCurve.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.util.Arrays;
+
+/**
+ * Piecewise automation curve evaluated at sample rate by
+ * {@link AutomationEngine}.
+ *
+ * A curve starts at an initial value at time 0 and is extended with segments
+ * that each end at a breakpoint. Segments may step, ramp linearly, ramp
+ * exponentially, or follow a cubic bezier shaped by two control values.
+ * After the last breakpoint the curve holds its final value. Breakpoint times
+ * are in seconds and must be added in increasing order.
+ *
+ * <pre>
+ * var curve = new AutomationCurve(200)
+ *         .exponentialTo(2.0, 4000)
+ *         .bezierTo(3.0, 800, 4000, 600)
+ *         .stepTo(4.0, 200);
+ * </pre>
+ *
+ * A curve should not be modified once it has been added to an engine.
+ *
+ * @author Steven Yi
+ */
+public class AutomationCurve {
+
+    /** Segment shapes */
+    public enum Shape {
+        /** Hold the previous value, jumping to the new value at the breakpoint. */
+        STEP,
+        /** Straight line between breakpoints. */
+        LINEAR,
+        /** Exponential ramp; falls back to linear if the values cross or touch zero. */
+        EXPONENTIAL,
+        /** Cubic bezier between breakpoints shaped by two control values. */
+        BEZIER
+    }
+
+    private double[] times = new double[8];
+    private double[] values = new double[8];
+    private double[] control1 = new double[8];
+    private double[] control2 = new double[8];
+    private Shape[] shapes = new Shape[8];
+    private int count = 1;
+
+    // index of segment last rendered, so sequential rendering is O(1)
+    private int cursor = 0;
+
+    /**
+     * Creates a curve starting at the given value at time 0.
+     *
+     * @param initialValue value at time 0
+     */
+    public AutomationCurve(double initialValue) {
+        values[0] = initialValue;
+        shapes[0] = Shape.STEP;
+    }
+
+    /**
+     * Adds a step: the value jumps to value at time.
+     *
+     * @param time  breakpoint time in seconds
+     * @param value value from the breakpoint on
+     * @return this curve
+     */
+    public AutomationCurve stepTo(double time, double value) {
+        return add(time, value, Shape.STEP, 0, 0);
+    }
+
+    /**
+     * Adds a linear ramp ending at value at time.
+     *
+     * @param time  breakpoint time in seconds
+     * @param value value at the breakpoint
+     * @return this curve
+     */
+    public AutomationCurve linearTo(double time, double value) {
+        return add(time, value, Shape.LINEAR, 0, 0);
+    }
+
+    /**
+     * Adds an exponential ramp ending at value at time.
+     *
+     * @param time  breakpoint time in seconds
+     * @param value value at the breakpoint
+     * @return this curve
+     */
+    public AutomationCurve exponentialTo(double time, double value) {
+        return add(time, value, Shape.EXPONENTIAL, 0, 0);
+    }
+
+    /**
+     * Adds a cubic bezier segment ending at value at time. The segment starts
+     * at the previous breakpoint value and is pulled towards control1 and
+     * then control2.
+     *
+     * @param time     breakpoint time in seconds
+     * @param value    value at the breakpoint
+     * @param control1 first control value
+     * @param control2 second control value
+     * @return this curve
+     */
+    public AutomationCurve bezierTo(double time, double value, double control1, double control2) {
+        return add(time, value, Shape.BEZIER, control1, control2);
+    }
+
+    private AutomationCurve add(double time, double value, Shape shape, double c1, double c2) {
+        if (time < times[count - 1]) {
+            throw new IllegalArgumentException("Breakpoint times must be increasing: " + time);
+        }
+        if (count == times.length) {
+            int size = count * 2;
+            times = Arrays.copyOf(times, size);
+            values = Arrays.copyOf(values, size);
+            control1 = Arrays.copyOf(control1, size);
+            control2 = Arrays.copyOf(control2, size);
+            shapes = Arrays.copyOf(shapes, size);
+        }
+        times[count] = time;
+        values[count] = value;
+        control1[count] = c1;
+        control2[count] = c2;
+        shapes[count] = shape;
+        count++;
+        return this;
+    }
+
+    /**
+     * Returns the value of the curve at a single point in time.
+     *
+     * @param time time in seconds
+     * @return curve value
+     */
+    public double valueAt(double time) {
+        int seg = findSegment(time);
+        if (seg >= count - 1) {
+            return values[count - 1];
+        }
+        double t0 = times[seg];
+        double t1 = times[seg + 1];
+        double u = t1 > t0 ? (time - t0) / (t1 - t0) : 1.0;
+        return interpolate(seg + 1, u);
+    }
+
+    /**
+     * Renders consecutive samples of the curve.
+     *
+     * @param startTime    time of the first sample in seconds
+     * @param samplePeriod seconds between samples (1 / sr)
+     * @param out          destination array
+     * @param length       number of samples to render
+     */
+    public void render(double startTime, double samplePeriod, double[] out, int length) {
+        int i = 0;
+        while (i < length) {
+            double time = startTime + i * samplePeriod;
+            int seg = findSegment(time);
+
+            if (seg >= count - 1) {
+                Arrays.fill(out, i, length, values[count - 1]);
+                return;
+            }
+
+            double t0 = times[seg];
+            double t1 = times[seg + 1];
+            int end = Math.min(length, (int) Math.ceil((t1 - startTime) / samplePeriod));
+            if (end <= i) {
+                end = i + 1;
+            }
+
+            int next = seg + 1;
+            double v0 = values[seg];
+            double v1 = values[next];
+            double span = t1 - t0;
+            double u0 = (time - t0) / span;
+            double du = samplePeriod / span;
+
+            switch (shapes[next]) {
+                case STEP -> Arrays.fill(out, i, end, v0);
+                case LINEAR -> {
+                    double start = v0 + (v1 - v0) * u0;
+                    double inc = (v1 - v0) * du;
+                    for (int j = i; j < end; j++) {
+                        out[j] = start + (j - i) * inc;
+                    }
+                }
+                case EXPONENTIAL -> {
+                    if (v0 * v1 <= 0) {
+                        double start = v0 + (v1 - v0) * u0;
+                        double inc = (v1 - v0) * du;
+                        for (int j = i; j < end; j++) {
+                            out[j] = start + (j - i) * inc;
+                        }
+                    } else {
+                        double ratio = v1 / v0;
+                        double v = v0 * Math.pow(ratio, u0);
+                        double mul = Math.pow(ratio, du);
+                        for (int j = i; j < end; j++) {
+                            out[j] = v;
+                            v *= mul;
+                        }
+                    }
+                }
+                case BEZIER -> {
+                    for (int j = i; j < end; j++) {
+                        out[j] = interpolate(next, u0 + (j - i) * du);
+                    }
+                }
+            }
+            i = end;
+        }
+    }
+
+    private double interpolate(int next, double u) {
+        double v0 = values[next - 1];
+        double v1 = values[next];
+        return switch (shapes[next]) {
+            case STEP -> u < 1.0 ? v0 : v1;
+            case LINEAR -> v0 + (v1 - v0) * u;
+            case EXPONENTIAL -> v0 * v1 <= 0 ? v0 + (v1 - v0) * u : v0 * Math.pow(v1 / v0, u);
+            case BEZIER -> {
+                double m = 1.0 - u;
+                yield m * m * m * v0
+                        + 3 * m * m * u * control1[next]
+                        + 3 * m * u * u * control2[next]
+                        + u * u * u * v1;
+            }
+        };
+    }
+
+    // returns index of breakpoint at or before time
+    private int findSegment(double time) {
+        int seg = cursor;
+        if (seg >= count || times[seg] > time) {
+            seg = 0;
+        }
+        while (seg < count - 1 && times[seg + 1] <= time) {
+            seg++;
+        }
+        cursor = seg;
+        return seg;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+    AutomationEngine.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders {@link AutomationCurve}s at sample rate into Csound audio channels.
+ *
+ * Each automated parameter is an audio channel read by the orchestra with
+ * chnget:a. Before every control cycle the engine evaluates each curve for
+ * the upcoming ksmps samples and copies the ramp into the channel's pointer
+ * in one bulk copy. Parameters therefore move smoothly within a block, which
+ * avoids zipper noise without lowering ksmps.
+ *
+ * <pre>
+ * var automation = new AutomationEngine();
+ * automation.add("cutoff", new AutomationCurve(200).exponentialTo(4, 8000));
+ * csound.addPerformHook(automation);
+ * </pre>
+ *
+ * The engine keeps its own sample clock, which starts at 0 and advances by
+ * ksmps on each cycle; use seek() to move it. Channel pointers are looked up
+ * again on the first cycle after the Csound instance is reset and restarted.
+ *
+ * @author Steven Yi
+ */
+public class AutomationEngine implements PerformHook {
+
+    private volatile Lane[] lanes = new Lane[0];
+
+    // bits of a pending seek time, or NO_SEEK
+    private static final long NO_SEEK = -1L;
+    private final AtomicLong seekBits = new AtomicLong(NO_SEEK);
+
+    // written only by the performing thread, read by getTime()
+    private volatile long samplePosition = 0;
+    private volatile double samplePeriod = 0;
+
+    // only accessed from performing thread
+    private EngineInfo boundEngine = null;
+    private int ksmps = 0;
+    private double[] scratch = null;
+
+    private static final class Lane {
+        final String channelName;
+        final AutomationCurve curve;
+        MemorySegment channelPtr = null;
+
+        Lane(String channelName, AutomationCurve curve) {
+            this.channelName = channelName;
+            this.curve = curve;
+        }
+    }
+
+    /**
+     * Adds a curve rendered into the named audio channel.
+     *
+     * @param channelName Name of audio channel
+     * @param curve       curve to render
+     */
+    public synchronized void add(String channelName, AutomationCurve curve) {
+        Lane[] updated = Arrays.copyOf(lanes, lanes.length + 1);
+        updated[updated.length - 1] = new Lane(channelName, curve);
+        lanes = updated;
+    }
+
+    /**
+     * Removes the curve for the named audio channel. The channel keeps the
+     * last rendered values.
+     *
+     * @param channelName Name of audio channel
+     */
+    public synchronized void remove(String channelName) {
+        lanes = Arrays.stream(lanes)
+                .filter(lane -> !lane.channelName.equals(channelName))
+                .toArray(Lane[]::new);
+    }
+
+    /**
+     * Moves the engine's clock. Takes effect at the next control cycle.
+     *
+     * @param seconds time in seconds
+     */
+    public void seek(double seconds) {
+        seekBits.set(Double.doubleToLongBits(Math.max(0, seconds)));
+    }
+
+    /**
+     * Returns the engine's current time in seconds.
+     *
+     * @return current time in seconds
+     */
+    public double getTime() {
+        return samplePosition * samplePeriod;
+    }
+
+    @Override
+    public void beforePerformKsmps(Csound csound) {
+        EngineInfo info = csound.getEngineInfo();
+        if (info != boundEngine) {
+            bind(info);
+        }
+
+        long seek = seekBits.getAndSet(NO_SEEK);
+        if (seek != NO_SEEK) {
+            samplePosition = Math.round(Double.longBitsToDouble(seek) / samplePeriod);
+        }
+
+        double time = samplePosition * samplePeriod;
+        for (Lane lane : lanes) {
+            if (lane.channelPtr == null) {
+                lane.channelPtr = csound.getAudioChannelPtr(lane.channelName);
+            }
+            if (lane.channelPtr == null) {
+                continue;
+            }
+            lane.curve.render(time, samplePeriod, scratch, ksmps);
+            Csound.copyToMyflt(scratch, 0, lane.channelPtr, 0, ksmps);
+        }
+        samplePosition += ksmps;
+    }
+
+    /**
+     * Adopts the block size and sample rate of a newly started engine and
+     * drops channel pointers into the previous one. The clock keeps its
+     * time in seconds across a restart.
+     */
+    private void bind(EngineInfo info) {
+        double time = getTime();
+        ksmps = info.ksmps();
+        samplePeriod = 1.0 / info.sr();
+        samplePosition = Math.round(time / samplePeriod);
+        if (scratch == null || scratch.length != ksmps) {
+            scratch = new double[ksmps];
+        }
+        for (Lane lane : lanes) {
+            lane.channelPtr = null;
+        }
+        boundEngine = info;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+    BindingMemoryMXBean.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * JMX view of the native memory held by all live Csound instances,
+ * registered as com.kunstmusik.csoundffm:type=BindingMemory once
+ * {@link NativeMemoryMetrics#registerMBeans()} has been called.
+ *
+ * @author Steven Yi
+ */
+public interface BindingMemoryMXBean {
+
+    /** Number of Csound instances created and not yet released. */
+    public int getLiveInstances();
+
+    /** Sum of bindingBytes over all live instances. */
+    public long getBindingBytes();
+
+    /** Sum of live upcall stubs over all live instances. */
+    public int getUpcallStubs();
+
+    /** Sum of known Csound-owned bytes over all live instances. */
+    public long getCsoundBytes();
+
+    /** Number of instances released by the Cleaner without close(). */
+    public long getLeakedInstances();
+}
@@ -0,0 +1,68 @@
+/*
+    BlockProcessor.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Single stage of a {@link ProcessorChain}. Processors run on the thread
+ * performing Csound immediately after each performKsmps() and operate in
+ * place on Csound's own buffers, so they must not block or allocate. Buffers
+ * hold MYFLT values (see {@link Csound#getMyfltLayout()}).
+ *
+ * <pre>
+ * BlockProcessor gain = (spin, spout, scratch, info) -&gt; {
+ *     long n = (long) info.ksmps() * info.nchnls();
+ *     for (long i = 0; i &lt; n; i++) {
+ *         Csound.setMyflt(spout, i, Csound.getMyflt(spout, i) * 0.5);
+ *     }
+ * };
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public interface BlockProcessor {
+
+    /**
+     * Called when the processor is added to a chain, and again on the
+     * performing thread before the first block after the Csound instance has
+     * been reset and restarted.
+     *
+     * @param info engine constants of the Csound instance
+     */
+    public default void init(EngineInfo info) {
+    }
+
+    /**
+     * Processes one block.
+     *
+     * @param spin    Csound's audio input buffer (ksmps * nchnls_i samples)
+     * @param spout   Csound's audio output buffer (ksmps * nchnls samples),
+     *                to be modified in place
+     * @param scratch off-heap scratch buffer shared by all stages of the
+     *                chain, ksmps * max(nchnls, nchnls_i) samples long; its
+     *                contents persist from one stage to the next
+     * @param info    engine constants of the Csound instance
+     */
+    public void process(MemorySegment spin, MemorySegment spout, MemorySegment scratch, EngineInfo info);
+}
@@ -0,0 +1,55 @@
+/*
+    ChannelCallback.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Single Abstract Method interface for invalue/outvalue channel callbacks
+ * to be used with Csound class. See {@link ChannelCallbackTable} for a
+ * ready-made implementation that dispatches to per-channel handlers.
+ *
+ * <pre>
+ * ChannelCallback cb = (cs, name, valuePtr, type) -&gt; {
+ *     var channelName = name.reinterpret(Integer.MAX_VALUE).getString(0);
+ *     Csound.setMyflt(valuePtr.reinterpret(Csound.getSizeOfMYFLT()), 0, 0.5);
+ * };
+ * csound.setInputChannelCallback(cb);
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public interface ChannelCallback {
+
+    /**
+     * Callback method for channel callbacks
+     *
+     * @param csound          Csound instance
+     * @param channelName     channel name (C string)
+     * @param channelValuePtr pointer to the channel value
+     * @param channelType     pointer to the Csound type of the channel
+     */
+
+    public void callback(MemorySegment csound, MemorySegment channelName,
+            MemorySegment channelValuePtr, MemorySegment channelType);
+}
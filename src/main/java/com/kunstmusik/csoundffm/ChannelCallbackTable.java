@@ -0,0 +1,260 @@
+/*
+    ChannelCallbackTable.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Dispatches invalue/outvalue channel callbacks to Java handlers registered
+ * per channel name.
+ *
+ * Csound passes the channel name as a C string on every call. Registering a
+ * handler rebuilds an immutable hash table keyed by the UTF-8 bytes of each
+ * channel name and publishes it through a volatile field, so a callback
+ * hashes the native name in place and finds its handler without locking,
+ * allocating or decoding a Java String. The same table may be installed in
+ * several Csound instances performing on different threads. Only numeric
+ * (k- and i-rate) channels are dispatched; string channels are ignored.
+ *
+ * Handlers run inside a native upcall, where an uncaught exception would
+ * terminate the JVM. Exceptions thrown by handlers are therefore caught and
+ * printed; an input channel then receives 0.
+ *
+ * <pre>
+ * var table = new ChannelCallbackTable();
+ * table.onInput("cutoff", () -&gt; slider.getValue());
+ * table.onOutput("meter", v -&gt; meterValue = v);
+ * table.install(csound);
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class ChannelCallbackTable {
+
+    // longest channel name matched; longer names never match a handler
+    private static final int MAX_NAME_BYTES = 1024;
+
+    // guarded by this
+    private final Map<String, DoubleSupplier> inputHandlers = new HashMap<>();
+    private final Map<String, DoubleConsumer> outputHandlers = new HashMap<>();
+
+    private volatile NameTable inputTable = NameTable.of(Map.of());
+    private volatile NameTable outputTable = NameTable.of(Map.of());
+
+    // last seen channel type pointers and whether they are string types
+    private volatile long numericType = 0;
+    private volatile long stringType = 0;
+
+    /**
+     * Registers a handler supplying values for invalue on a channel. Replaces
+     * any previous handler for the channel.
+     *
+     * @param channelName Name of channel
+     * @param handler     supplier of channel values
+     */
+    public synchronized void onInput(String channelName, DoubleSupplier handler) {
+        inputHandlers.put(channelName, handler);
+        inputTable = NameTable.of(inputHandlers);
+    }
+
+    /**
+     * Registers a handler receiving values sent with outvalue on a channel.
+     * Replaces any previous handler for the channel.
+     *
+     * @param channelName Name of channel
+     * @param handler     consumer of channel values
+     */
+    public synchronized void onOutput(String channelName, DoubleConsumer handler) {
+        outputHandlers.put(channelName, handler);
+        outputTable = NameTable.of(outputHandlers);
+    }
+
+    /**
+     * Sets this table as the input and output channel callback of a Csound
+     * instance.
+     *
+     * @param csound Csound instance
+     */
+    public void install(Csound csound) {
+        csound.setInputChannelCallback(this::input);
+        csound.setOutputChannelCallback(this::output);
+    }
+
+    /**
+     * Clears the input and output channel callbacks of a Csound instance.
+     *
+     * @param csound Csound instance
+     */
+    public void uninstall(Csound csound) {
+        csound.setInputChannelCallback(null);
+        csound.setOutputChannelCallback(null);
+    }
+
+    private void input(MemorySegment cs, MemorySegment name, MemorySegment value, MemorySegment type) {
+        try {
+            if (isStringType(type)) {
+                return;
+            }
+            if (inputTable.lookup(name) instanceof DoubleSupplier supplier) {
+                MemorySegment valuePtr = value.reinterpret(Csound.getSizeOfMYFLT());
+                double v;
+                try {
+                    v = supplier.getAsDouble();
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                    v = 0;
+                }
+                Csound.setMyflt(valuePtr, 0, v);
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    private void output(MemorySegment cs, MemorySegment name, MemorySegment value, MemorySegment type) {
+        try {
+            if (isStringType(type)) {
+                return;
+            }
+            if (outputTable.lookup(name) instanceof DoubleConsumer consumer) {
+                consumer.accept(Csound.getMyflt(value.reinterpret(Csound.getSizeOfMYFLT()), 0));
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    private boolean isStringType(MemorySegment type) {
+        long address = type.address();
+        if (address == 0 || address == numericType) {
+            return false;
+        }
+        if (address == stringType) {
+            return true;
+        }
+        // first member of CS_TYPE is the type name, e.g. "k" or "S"
+        MemorySegment typeName = type.reinterpret(ADDRESS.byteSize()).get(ADDRESS, 0);
+        boolean isString = typeName.address() != 0
+                && typeName.reinterpret(1).get(JAVA_BYTE, 0) == 'S';
+        if (isString) {
+            stringType = address;
+        } else {
+            numericType = address;
+        }
+        return isString;
+    }
+
+    /**
+     * Immutable open addressing table from channel name bytes to handler.
+     * Looked up directly from the NUL-terminated name Csound passes.
+     */
+    private static final class NameTable {
+
+        private final byte[][] names;
+        private final int[] hashes;
+        private final Object[] handlers;
+        private final int mask;
+
+        private NameTable(int capacity) {
+            this.names = new byte[capacity][];
+            this.hashes = new int[capacity];
+            this.handlers = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+
+        static NameTable of(Map<String, ?> handlers) {
+            int capacity = 8;
+            while (capacity < handlers.size() * 2) {
+                capacity <<= 1;
+            }
+            NameTable table = new NameTable(capacity);
+            for (Map.Entry<String, ?> entry : handlers.entrySet()) {
+                byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                int hash = hash(bytes);
+                int index = hash & table.mask;
+                while (table.names[index] != null) {
+                    index = (index + 1) & table.mask;
+                }
+                table.names[index] = bytes;
+                table.hashes[index] = hash;
+                table.handlers[index] = entry.getValue();
+            }
+            return table;
+        }
+
+        Object lookup(MemorySegment name) {
+            if (name.address() == 0) {
+                return null;
+            }
+            MemorySegment str = name.reinterpret(MAX_NAME_BYTES + 1);
+            // FNV-1a over the native bytes, stopping at the terminator
+            int hash = 0x811C9DC5;
+            int length = 0;
+            byte b;
+            while ((b = str.get(JAVA_BYTE, length)) != 0) {
+                if (length == MAX_NAME_BYTES) {
+                    return null;
+                }
+                hash = (hash ^ (b & 0xFF)) * 0x01000193;
+                length++;
+            }
+
+            int index = hash & mask;
+            while (names[index] != null) {
+                if (hashes[index] == hash && matches(str, length, names[index])) {
+                    return handlers[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        private static boolean matches(MemorySegment str, int length, byte[] bytes) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (str.get(JAVA_BYTE, i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hash(byte[] bytes) {
+            int hash = 0x811C9DC5;
+            for (byte b : bytes) {
+                hash = (hash ^ (b & 0xFF)) * 0x01000193;
+            }
+            return hash;
+        }
+    }
+}
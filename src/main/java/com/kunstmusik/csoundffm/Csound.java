@@ -28,6 +28,7 @@ import static com.kunstmusik.csoundffm.ControlChannelType.CSOUND_INPUT_CHANNEL;
 import static com.kunstmusik.csoundffm.ControlChannelType.CSOUND_OUTPUT_CHANNEL;
 import static java.lang.foreign.ValueLayout.ADDRESS;
 import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
 import static java.lang.foreign.ValueLayout.JAVA_INT;
 
 import java.io.File;
@@ -36,11 +37,16 @@ import java.lang.foreign.FunctionDescriptor;
 import java.lang.foreign.Linker;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  *
@@ -51,7 +57,7 @@ import java.nio.file.Path;
  *
  * @author Steven Yi
  */
-public class Csound {
+public class Csound implements AutoCloseable {
 
     private static boolean isCsound6 = false;
 
@@ -63,8 +69,12 @@ public class Csound {
     private static MethodHandle csoundCompile = null;
     private static MethodHandle csoundCompileOrc = null;
     private static MethodHandle csoundCompileCsd = null;
+    private static MethodHandle csoundParseOrc = null;
+    private static MethodHandle csoundCompileTree = null;
+    private static MethodHandle csoundDeleteTree = null;
     private static MethodHandle csoundGetScoreTime = null;
     private static MethodHandle csoundPerformKsmps = null;
+    private static MethodHandle csoundPerform = null;
 
     private static MethodHandle csoundStart = null;
     private static MethodHandle csoundReset = null;
@@ -81,6 +91,16 @@ public class Csound {
     private static MethodHandle csoundSetStringChannel;
     private static MethodHandle csoundGetChannelPtr;
     private static MethodHandle csoundSetMessageStringCallback = null;
+    private static MethodHandle csoundSetInputChannelCallback;
+    private static MethodHandle csoundSetOutputChannelCallback;
+    private static MethodHandle csoundSetMessageLevel;
+    private static MethodHandle csoundGetMessageLevel;
+    private static MethodHandle csoundCreateMessageBuffer;
+    private static MethodHandle csoundGetFirstMessage;
+    private static MethodHandle csoundGetFirstMessageAttr;
+    private static MethodHandle csoundPopFirstMessage;
+    private static MethodHandle csoundGetMessageCnt;
+    private static MethodHandle csoundDestroyMessageBuffer;
 
     // CS7 API
     private static MethodHandle csoundEventString = null;
@@ -88,6 +108,7 @@ public class Csound {
 
     // CS6 API
     private static MethodHandle csoundCompileOrcAsync = null;
+    private static MethodHandle csoundCompileTreeAsync = null;
     private static MethodHandle csoundReadScore = null;
     private static MethodHandle csoundReadScoreAsync = null;
     private static MethodHandle csoundCompileCsdText = null;
@@ -96,51 +117,95 @@ public class Csound {
 
     private static final Cleaner cleaner = Cleaner.create();
 
+    // MYFLT width of the loaded library (float or double build)
+    private static final int sizeOfMyflt;
+    private static final boolean isFloatMyflt;
+    private static final ValueLayout myfltLayout;
+
     // MEMBER VARIABLES
-    @SuppressWarnings("unused")
     private final Cleaner.Cleanable cleanable;
+    private final CsoundCleanup cleanup;
+    private final NativeMemoryAccount memoryAccount;
+    // holds upcall stubs for callbacks; freed with the Csound instance
+    private final Arena callbackArena = Arena.ofShared();
+    // the stubs only reach callbacks weakly, through WeakMessageCallback and
+    // WeakChannelCallback, so that a callback capturing this object does not
+    // keep it reachable from the Cleaner; these fields keep them alive
+    private volatile MessageCallback messageCallback;
+    private volatile ChannelCallback inputChannelCallback;
+    private volatile ChannelCallback outputChannelCallback;
 
     private MemorySegment csoundInstance;
 
-    private static String getLibraryPath() {
+    private volatile PerformHook[] performHooks = new PerformHook[0];
+
+    private volatile CsoundState state = CsoundState.CREATED;
+    private volatile EngineInfo engineInfo = null;
+    // incremented by reset(), which frees all memory allocated by Csound
+    private volatile int resetCount = 0;
+
+    private static List<String> getLibraryPaths() {
         var os = System.getProperty("os.name").toLowerCase();
         var isMac = ((os.indexOf("mac") >= 0) || (os.indexOf("darwin") >= 0));
         var isLinux = os.toLowerCase().contains("linux");
 
-        String libraryPath = "csound64";
+        // double precision builds are preferred, float builds are used if
+        // they are the only ones installed
+        List<String> libraryPaths = new ArrayList<>();
 
         if (isMac) {
             var home = System.getProperty("user.home");
-            var libRoot = "/Library/Frameworks/CsoundLib64.framework/CsoundLib64";
-            var userFramework = Path.of(home, libRoot).toString();
-            var sysFramework = libRoot;
-
-            if (new File(userFramework).exists()) {
-                libraryPath = userFramework;
-            } else if (new File(sysFramework).exists()) {
-                libraryPath = sysFramework;
+            for (var lib : new String[] { "CsoundLib64", "CsoundLib" }) {
+                var libRoot = "/Library/Frameworks/" + lib + ".framework/" + lib;
+                var userFramework = Path.of(home, libRoot).toString();
+                var sysFramework = libRoot;
+
+                if (new File(userFramework).exists()) {
+                    libraryPaths.add(userFramework);
+                } else if (new File(sysFramework).exists()) {
+                    libraryPaths.add(sysFramework);
+                }
             }
         } else if (isLinux) {
-            var usrLocalLibPath = "/usr/local/lib/libcsound64.so";
-            if (new File(usrLocalLibPath).exists()) {
-                return usrLocalLibPath;
+            for (var lib : new String[] { "libcsound64.so", "libcsound.so" }) {
+                var usrLocalLibPath = "/usr/local/lib/" + lib;
+                if (new File(usrLocalLibPath).exists()) {
+                    libraryPaths.add(usrLocalLibPath);
+                }
             }
-
         }
 
-        return libraryPath;
-    }
+        libraryPaths.add("csound64");
+        libraryPaths.add("csound");
 
-    private static void initialize() {
+        return libraryPaths;
+    }
 
-        String libraryPath = getLibraryPath();
+    /**
+     * Loads the Csound library and binds all functions.
+     *
+     * @return size of MYFLT in bytes for the loaded library
+     */
+    private static int initialize() {
 
         Arena arena = Arena.global();
+        int myfltSize = 8;
 
         try {
             var linker = Linker.nativeLinker();
 
-            SymbolLookup mylib = SymbolLookup.libraryLookup(libraryPath, arena);
+            SymbolLookup mylib = null;
+            for (String libraryPath : getLibraryPaths()) {
+                try {
+                    mylib = SymbolLookup.libraryLookup(libraryPath, arena);
+                    break;
+                } catch (IllegalArgumentException e) {
+                    // not found, try next candidate
+                }
+            }
+            if (mylib == null) {
+                throw new Exception("Unable to find Csound library");
+            }
 
             csoundInitialize = linker.downcallHandle(
                     mylib.find("csoundInitialize").orElseThrow(), FunctionDescriptor.ofVoid(JAVA_INT));
@@ -158,6 +223,10 @@ public class Csound {
             }
             isCsound6 = version < 7000;
 
+            myfltSize = (int) linker.downcallHandle(mylib.find("csoundGetSizeOfMYFLT").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT)).invokeExact();
+            ValueLayout myflt = myfltSize == 4 ? JAVA_FLOAT : JAVA_DOUBLE;
+
             if (isCsound6) {
                 csoundCreate = linker.downcallHandle(mylib.find("csoundCreate").orElseThrow(),
                         FunctionDescriptor.of(ADDRESS, ADDRESS));
@@ -165,6 +234,10 @@ public class Csound {
                         FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
                 csoundCompileOrcAsync = linker.downcallHandle(mylib.find("csoundCompileOrcAsync").orElseThrow(),
                         FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+                csoundCompileTree = linker.downcallHandle(mylib.find("csoundCompileTree").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+                csoundCompileTreeAsync = linker.downcallHandle(mylib.find("csoundCompileTreeAsync").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
                 csoundCompileCsdText = linker.downcallHandle(mylib.find("csoundCompileCsdText").orElseThrow(),
                         FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
                 csoundReadScore = linker.downcallHandle(mylib.find("csoundReadScore").orElseThrow(),
@@ -185,6 +258,9 @@ public class Csound {
                 csoundCompileCsd = linker.downcallHandle(mylib.find("csoundCompileCSD").orElseThrow(),
                         FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT));
 
+                csoundCompileTree = linker.downcallHandle(mylib.find("csoundCompileTree").orElseThrow(),
+                        FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT));
+
                 csoundEventString = linker.downcallHandle(mylib.find("csoundEventString").orElseThrow(),
                         FunctionDescriptor.of(JAVA_DOUBLE, ADDRESS, ADDRESS, JAVA_INT));
 
@@ -194,8 +270,12 @@ public class Csound {
 
             csoundSetOption = linker.downcallHandle(mylib.find("csoundSetOption").orElseThrow(),
                     FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
-            csoundEvalCode = linker.downcallHandle(mylib.find("csoundEvalCode").orElseThrow(),
-                    FunctionDescriptor.of(JAVA_DOUBLE, ADDRESS, ADDRESS));
+            csoundParseOrc = linker.downcallHandle(mylib.find("csoundParseOrc").orElseThrow(),
+                    FunctionDescriptor.of(ADDRESS, ADDRESS, ADDRESS));
+            csoundDeleteTree = linker.downcallHandle(mylib.find("csoundDeleteTree").orElseThrow(),
+                    FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+            csoundEvalCode = myfltAsDouble(linker.downcallHandle(mylib.find("csoundEvalCode").orElseThrow(),
+                    FunctionDescriptor.of(myflt, ADDRESS, ADDRESS)));
             csoundCompile = linker.downcallHandle(mylib.find("csoundCompile").orElseThrow(),
                     FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, ADDRESS));
             csoundGetScoreTime = linker.downcallHandle(mylib.find("csoundGetScoreTime").orElseThrow(),
@@ -204,6 +284,13 @@ public class Csound {
             csoundPerformKsmps = linker.downcallHandle(mylib.find("csoundPerformKsmps").orElseThrow(),
                     FunctionDescriptor.of(JAVA_INT, ADDRESS));
 
+            // whole-score perform is not available in all versions of the API
+            var performSymbol = mylib.find("csoundPerform");
+            if (performSymbol.isPresent()) {
+                csoundPerform = linker.downcallHandle(performSymbol.get(),
+                        FunctionDescriptor.of(JAVA_INT, ADDRESS));
+            }
+
             csoundStart = linker.downcallHandle(mylib.find("csoundStart").orElseThrow(),
                     FunctionDescriptor.of(JAVA_INT, ADDRESS));
             csoundReset = linker.downcallHandle(mylib.find("csoundReset").orElseThrow(),
@@ -211,21 +298,22 @@ public class Csound {
             csoundDestroy = linker.downcallHandle(mylib.find("csoundDestroy").orElseThrow(),
                     FunctionDescriptor.ofVoid(ADDRESS));
 
-            csoundGetSr = linker.downcallHandle(mylib.find("csoundGetSr").orElseThrow(),
-                    FunctionDescriptor.of(JAVA_DOUBLE, ADDRESS));
-            csoundGetKr = linker.downcallHandle(mylib.find("csoundGetKr").orElseThrow(),
-                    FunctionDescriptor.of(JAVA_DOUBLE, ADDRESS));
+            csoundGetSr = myfltAsDouble(linker.downcallHandle(mylib.find("csoundGetSr").orElseThrow(),
+                    FunctionDescriptor.of(myflt, ADDRESS)));
+            csoundGetKr = myfltAsDouble(linker.downcallHandle(mylib.find("csoundGetKr").orElseThrow(),
+                    FunctionDescriptor.of(myflt, ADDRESS)));
             csoundGetKsmps = linker.downcallHandle(mylib.find("csoundGetKsmps").orElseThrow(),
                     FunctionDescriptor.of(JAVA_INT, ADDRESS));
-            csoundGet0dBFS = linker.downcallHandle(mylib.find("csoundGet0dBFS").orElseThrow(),
-                    FunctionDescriptor.of(JAVA_DOUBLE, ADDRESS));
+            csoundGet0dBFS = myfltAsDouble(linker.downcallHandle(mylib.find("csoundGet0dBFS").orElseThrow(),
+                    FunctionDescriptor.of(myflt, ADDRESS)));
 
             csoundGetSpin = linker.downcallHandle(mylib.find("csoundGetSpin").orElseThrow(),
                     FunctionDescriptor.of(ADDRESS, ADDRESS));
             csoundGetSpout = linker.downcallHandle(mylib.find("csoundGetSpout").orElseThrow(),
                     FunctionDescriptor.of(ADDRESS, ADDRESS));
-            csoundSetControlChannel = linker.downcallHandle(mylib.find("csoundSetControlChannel").orElseThrow(),
-                    FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, JAVA_DOUBLE));
+            csoundSetControlChannel = myfltAsDouble(linker.downcallHandle(
+                    mylib.find("csoundSetControlChannel").orElseThrow(),
+                    FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, myflt)));
             csoundSetStringChannel = linker.downcallHandle(mylib.find("csoundSetStringChannel").orElseThrow(),
                     FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, ADDRESS));
             csoundGetChannelPtr = linker.downcallHandle(mylib.find("csoundGetChannelPtr").orElseThrow(),
@@ -234,14 +322,129 @@ public class Csound {
             csoundSetMessageStringCallback = linker.downcallHandle(
                     mylib.find("csoundSetMessageStringCallback").orElseThrow(),
                     FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+            csoundSetInputChannelCallback = linker.downcallHandle(
+                    mylib.find("csoundSetInputChannelCallback").orElseThrow(),
+                    FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+            csoundSetOutputChannelCallback = linker.downcallHandle(
+                    mylib.find("csoundSetOutputChannelCallback").orElseThrow(),
+                    FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+            csoundSetMessageLevel = linker.downcallHandle(mylib.find("csoundSetMessageLevel").orElseThrow(),
+                    FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT));
+            csoundGetMessageLevel = linker.downcallHandle(mylib.find("csoundGetMessageLevel").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, ADDRESS));
+            csoundCreateMessageBuffer = linker.downcallHandle(mylib.find("csoundCreateMessageBuffer").orElseThrow(),
+                    FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT));
+            csoundGetFirstMessage = linker.downcallHandle(mylib.find("csoundGetFirstMessage").orElseThrow(),
+                    FunctionDescriptor.of(ADDRESS, ADDRESS));
+            csoundGetFirstMessageAttr = linker.downcallHandle(mylib.find("csoundGetFirstMessageAttr").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, ADDRESS));
+            csoundPopFirstMessage = linker.downcallHandle(mylib.find("csoundPopFirstMessage").orElseThrow(),
+                    FunctionDescriptor.ofVoid(ADDRESS));
+            csoundGetMessageCnt = linker.downcallHandle(mylib.find("csoundGetMessageCnt").orElseThrow(),
+                    FunctionDescriptor.of(JAVA_INT, ADDRESS));
+            csoundDestroyMessageBuffer = linker.downcallHandle(mylib.find("csoundDestroyMessageBuffer").orElseThrow(),
+                    FunctionDescriptor.ofVoid(ADDRESS));
 
         } catch (Throwable t) {
             t.printStackTrace();
         }
+        return myfltSize;
+    }
+
+    /**
+     * Adapts a downcall handle using float MYFLT arguments or return values
+     * to use double, so that call sites are the same for float and double
+     * builds of Csound.
+     */
+    private static MethodHandle myfltAsDouble(MethodHandle handle) {
+        MethodType type = handle.type();
+        if (type.returnType() == float.class) {
+            type = type.changeReturnType(double.class);
+        }
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (type.parameterType(i) == float.class) {
+                type = type.changeParameterType(i, double.class);
+            }
+        }
+        return MethodHandles.explicitCastArguments(handle, type);
     }
 
     static {
-        initialize();
+        sizeOfMyflt = initialize();
+        isFloatMyflt = sizeOfMyflt == 4;
+        myfltLayout = isFloatMyflt ? JAVA_FLOAT : JAVA_DOUBLE;
+    }
+
+    /**
+     * Returns the size of MYFLT in bytes for the loaded Csound library: 8 for
+     * double precision builds, 4 for single precision builds.
+     *
+     * @return size of MYFLT in bytes
+     */
+    public static int getSizeOfMYFLT() {
+        return sizeOfMyflt;
+    }
+
+    /**
+     * Returns the memory layout of MYFLT for the loaded Csound library:
+     * JAVA_DOUBLE for double precision builds, JAVA_FLOAT for single
+     * precision builds. Use this layout when accessing spin, spout, channel
+     * pointers and tables directly.
+     *
+     * @return MYFLT memory layout
+     */
+    public static ValueLayout getMyfltLayout() {
+        return myfltLayout;
+    }
+
+    /**
+     * Reads the MYFLT at the given index of a segment, such as spout or a
+     * channel pointer, independently of the MYFLT width of the loaded library.
+     *
+     * @param segment segment of MYFLT values
+     * @param index   element index
+     * @return value widened to double
+     */
+    public static double getMyflt(MemorySegment segment, long index) {
+        return isFloatMyflt
+                ? segment.getAtIndex(JAVA_FLOAT, index)
+                : segment.getAtIndex(JAVA_DOUBLE, index);
+    }
+
+    /**
+     * Writes the MYFLT at the given index of a segment, such as spin or a
+     * channel pointer, independently of the MYFLT width of the loaded library.
+     *
+     * @param segment segment of MYFLT values
+     * @param index   element index
+     * @param value   value to write, narrowed to float for float builds
+     */
+    public static void setMyflt(MemorySegment segment, long index, double value) {
+        if (isFloatMyflt) {
+            segment.setAtIndex(JAVA_FLOAT, index, (float) value);
+        } else {
+            segment.setAtIndex(JAVA_DOUBLE, index, value);
+        }
+    }
+
+    /**
+     * Copies doubles from a Java array into a segment of MYFLT values,
+     * converting to float for float builds.
+     *
+     * @param src      source array
+     * @param srcIndex first index in source array
+     * @param dst      destination segment of MYFLT values
+     * @param dstIndex first element index in destination segment
+     * @param length   number of values to copy
+     */
+    public static void copyToMyflt(double[] src, int srcIndex, MemorySegment dst, long dstIndex, int length) {
+        if (isFloatMyflt) {
+            for (int i = 0; i < length; i++) {
+                dst.setAtIndex(JAVA_FLOAT, dstIndex + i, (float) src[srcIndex + i]);
+            }
+        } else {
+            MemorySegment.copy(src, srcIndex, dst, JAVA_DOUBLE, dstIndex * JAVA_DOUBLE.byteSize(), length);
+        }
     }
 
     /**
@@ -268,7 +471,9 @@ public class Csound {
             csoundInitialize.invoke(3);
             csoundInstance = isCsound6 ? (MemorySegment) csoundCreate.invokeExact(MemorySegment.NULL)
                     : (MemorySegment) csoundCreate.invokeExact(MemorySegment.NULL, MemorySegment.NULL);
-            cleanable = cleaner.register(this, new CsoundCleanup(csoundInstance));
+            memoryAccount = NativeMemoryMetrics.open();
+            cleanup = new CsoundCleanup(csoundInstance, callbackArena, memoryAccount);
+            cleanable = cleaner.register(this, cleanup);
         } catch (Throwable e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -285,10 +490,15 @@ public class Csound {
         if (option == null) {
             return -1;
         }
+        requireNotStarted("setOption");
         try (Arena arena = Arena.ofConfined()) {
             MemorySegment optionSegment = arena.allocateFrom(option);
 
-            return (int) csoundSetOption.invoke(csoundInstance, optionSegment);
+            int retVal = (int) csoundSetOption.invoke(csoundInstance, optionSegment);
+            if (state == CsoundState.CREATED || state == CsoundState.RESET) {
+                state = CsoundState.OPTIONS_SET;
+            }
+            return retVal;
         } catch (Throwable t) {
             t.printStackTrace();
             return -1;
@@ -309,6 +519,7 @@ public class Csound {
      * @return result of value passed to 'return' opcode in global space
      */
     public double evalCode(String orcCode) {
+        requireNotClosed("evalCode");
         if (orcCode == null) {
             return -1;
         }
@@ -316,7 +527,9 @@ public class Csound {
         try (Arena arena = Arena.ofConfined()) {
             MemorySegment orcCodeSegment = arena.allocateFrom(orcCode);
 
-            return (double) csoundEvalCode.invoke(csoundInstance, orcCodeSegment);
+            double retVal = (double) csoundEvalCode.invoke(csoundInstance, orcCodeSegment);
+            markCompiled();
+            return retVal;
         } catch (Throwable t) {
             t.printStackTrace();
             return -1;
@@ -350,6 +563,7 @@ public class Csound {
         if (args == null) {
             return -1;
         }
+        requireNotStarted("compile");
         try (Arena arena = Arena.ofConfined()) {
             // Allocate memory for the array of pointers
             MemorySegment argsArray = arena.allocate(ADDRESS, args.length);
@@ -361,7 +575,11 @@ public class Csound {
             }
 
             // Invoke the native function
-            return (int) csoundCompile.invoke(csoundInstance, args.length, argsArray);
+            int retVal = (int) csoundCompile.invoke(csoundInstance, args.length, argsArray);
+            if (retVal == 0) {
+                markStarted();
+            }
+            return retVal;
         } catch (Throwable t) {
             t.printStackTrace();
             return -1;
@@ -383,27 +601,112 @@ public class Csound {
      * @return Returns a non-zero error code on failure.
      */
     public int compileOrc(String orcCode, int async) {
+        requireNotClosed("compileOrc");
         if (orcCode == null) {
             return -1;
         }
         try (Arena arena = Arena.ofConfined()) {
             MemorySegment orcCodeSegment = arena.allocateFrom(orcCode);
 
+            int retVal;
+            if (isCsound6) {
+                if (async == 0) {
+                    retVal = (int) csoundCompileOrc.invoke(csoundInstance, orcCodeSegment);
+                } else {
+                    retVal = (int) csoundCompileOrcAsync.invoke(csoundInstance, orcCodeSegment);
+                }
+            } else {
+                retVal = (int) csoundCompileOrc.invoke(csoundInstance, orcCodeSegment, async);
+            }
+
+            if (retVal == 0) {
+                markCompiled();
+            }
+            return retVal;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the given orchestra from a String into an abstract syntax tree
+     * (TREE) without compiling it. The tree can then be compiled with
+     * compileTree() and must be released with deleteTree().
+     *
+     * @param orcCode Csound orchestra code
+     * @return MemorySegment pointing to the TREE, or null if parsing failed
+     */
+    public MemorySegment parseOrc(String orcCode) {
+        requireNotClosed("parseOrc");
+        if (orcCode == null) {
+            return null;
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment orcCodeSegment = arena.allocateFrom(orcCode);
+
+            MemorySegment tree = (MemorySegment) csoundParseOrc.invoke(csoundInstance, orcCodeSegment);
+            return tree.equals(MemorySegment.NULL) ? null : tree;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Compiles an abstract syntax tree created with parseOrc(), also evaluating
+     * any global space code. Like compileOrc(), this can be called during
+     * performance to compile new instruments.
+     *
+     * @param tree  MemorySegment pointing to a TREE from parseOrc()
+     * @param async 0 for synchronous, 1 for asynchronous.
+     * @return Returns a non-zero error code on failure.
+     */
+    public int compileTree(MemorySegment tree, int async) {
+        requireNotClosed("compileTree");
+        if (tree == null) {
+            return -1;
+        }
+        try {
+            int retVal;
             if (isCsound6) {
                 if (async == 0) {
-                    return (int) csoundCompileOrc.invoke(csoundInstance, orcCodeSegment);
+                    retVal = (int) csoundCompileTree.invoke(csoundInstance, tree);
                 } else {
-                    return (int) csoundCompileOrcAsync.invoke(csoundInstance, orcCodeSegment);
+                    retVal = (int) csoundCompileTreeAsync.invoke(csoundInstance, tree);
                 }
+            } else {
+                retVal = (int) csoundCompileTree.invoke(csoundInstance, tree, async);
             }
 
-            return (int) csoundCompileOrc.invoke(csoundInstance, orcCodeSegment, async);
+            if (retVal == 0) {
+                markCompiled();
+            }
+            return retVal;
         } catch (Throwable t) {
             t.printStackTrace();
             return -1;
         }
     }
 
+    /**
+     * Frees the resources associated with a TREE created by parseOrc(). Must
+     * be called on the same instance that parsed the tree.
+     *
+     * @param tree MemorySegment pointing to a TREE from parseOrc()
+     */
+    public void deleteTree(MemorySegment tree) {
+        requireNotClosed("deleteTree");
+        if (tree == null) {
+            return;
+        }
+        try {
+            csoundDeleteTree.invoke(csoundInstance, tree);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
     /**
      * Compiles Csound CSD input text, but does not perform it.Returns a
      * non-zero error code on failure.If start() is called before
@@ -459,21 +762,28 @@ public class Csound {
      * @return Returns a non-zero error code on failure.
      */
     public int compileCSD(String csd, int mode) {
+        requireNotClosed("compileCSD");
         if (csd == null) {
             return -1;
         }
         try (Arena arena = Arena.ofConfined()) {
             MemorySegment csdTextSegment = arena.allocateFrom(csd);
 
+            int retVal;
             if (isCsound6) {
                 if (mode == 0) {
                     throw new Exception("Csound 6 compileCsd is not supported with mode 0");
                 } else {
-                    return (int) csoundCompileCsdText.invoke(csoundInstance, csdTextSegment);
+                    retVal = (int) csoundCompileCsdText.invoke(csoundInstance, csdTextSegment);
                 }
+            } else {
+                retVal = (int) csoundCompileCsd.invoke(csoundInstance, csdTextSegment, mode);
             }
 
-            return (int) csoundCompileCsd.invoke(csoundInstance, csdTextSegment, mode);
+            if (retVal == 0) {
+                markCompiled();
+            }
+            return retVal;
         } catch (Throwable t) {
             t.printStackTrace();
             return -1;
@@ -487,6 +797,7 @@ public class Csound {
      * @return Current score time in seconds since the beginning of performance.
      */
     public double getScoreTime() {
+        requireNotClosed("getScoreTime");
         try {
             return (double) csoundGetScoreTime.invokeExact(csoundInstance);
         } catch (Throwable t) {
@@ -505,22 +816,35 @@ public class Csound {
      * @param async     0 for synchronous, 1 for asynchronous.
      */
     public void eventString(String scoreText, int async) {
+        requireNotClosed("eventString");
         if (scoreText == null) {
             return;
         }
         try (Arena arena = Arena.ofConfined()) {
-            MemorySegment scoreTextSegment = arena.allocateFrom(scoreText);
+            eventString(arena.allocateFrom(scoreText), async);
+        }
+    }
 
+    /**
+     * Sends events from NULL-terminated UTF-8 score text already in native
+     * memory. Lets callers that send events every control cycle reuse one
+     * buffer instead of copying a String into a new allocation per call.
+     *
+     * @param scoreText NULL-terminated Csound score text.
+     * @param async     0 for synchronous, 1 for asynchronous.
+     */
+    public void eventString(MemorySegment scoreText, int async) {
+        requireNotClosed("eventString");
+        try {
             if (isCsound6) {
                 if (async == 0) {
-                    csoundReadScore.invoke(csoundInstance, scoreTextSegment);
+                    csoundReadScore.invoke(csoundInstance, scoreText);
                 } else {
-                    csoundReadScoreAsync.invoke(csoundInstance, scoreTextSegment);
+                    csoundReadScoreAsync.invoke(csoundInstance, scoreText);
                 }
             } else {
-                csoundEventString.invoke(csoundInstance, scoreTextSegment, async);
+                csoundEventString.invoke(csoundInstance, scoreText, async);
             }
-
         } catch (Throwable t) {
             t.printStackTrace();
         }
@@ -539,8 +863,13 @@ public class Csound {
      * @return Returns a non-zero error code on failure.
      */
     public int start() {
+        requireNotStarted("start");
         try {
-            return (int) csoundStart.invokeExact(csoundInstance);
+            int retVal = (int) csoundStart.invokeExact(csoundInstance);
+            if (retVal == 0) {
+                markStarted();
+            }
+            return retVal;
         } catch (Throwable t) {
             t.printStackTrace();
             return -1;
@@ -556,14 +885,148 @@ public class Csound {
      * Csound, and to synchronize performance with audio input and output.
      *
      * @return 1 if performance is done, 0 if still more to perform.
+     * @throws IllegalStateException if the instance has not been started
      */
     public int performKsmps() {
+        requireStarted("performKsmps");
+        PerformHook[] hooks = performHooks;
+        for (PerformHook hook : hooks) {
+            try {
+                hook.beforePerformKsmps(this);
+            } catch (Throwable t) {
+                hookFailed(hook, t);
+            }
+        }
+
+        int res;
         try {
-            return (int) csoundPerformKsmps.invokeExact(csoundInstance);
+            res = (int) csoundPerformKsmps.invokeExact(csoundInstance);
         } catch (Throwable t) {
             t.printStackTrace();
             return -1;
         }
+
+        if (res == 0) {
+            for (PerformHook hook : hooks) {
+                try {
+                    hook.afterPerformKsmps(this);
+                } catch (Throwable t) {
+                    hookFailed(hook, t);
+                }
+            }
+        }
+        return res;
+    }
+
+    // a failing hook is reported and removed so that it cannot end the
+    // performance or fail again on every cycle
+    private void hookFailed(PerformHook hook, Throwable t) {
+        System.err.println("CsoundFFM: removing PerformHook " + hook + " after it threw:");
+        t.printStackTrace();
+        removePerformHook(hook);
+    }
+
+    /**
+     * Returns the current lifecycle state of this instance.
+     *
+     * @return current CsoundState
+     */
+    public CsoundState getState() {
+        return state;
+    }
+
+    /**
+     * Number of times reset() has been called. Native memory obtained before
+     * the last reset, such as parsed trees, has been freed by Csound.
+     */
+    int getResetCount() {
+        return resetCount;
+    }
+
+    /**
+     * Returns the engine constants captured when this instance was started.
+     *
+     * @return EngineInfo snapshot
+     * @throws IllegalStateException if the instance has not been started
+     */
+    public EngineInfo getEngineInfo() {
+        requireStarted("getEngineInfo");
+        return engineInfo;
+    }
+
+    private void markCompiled() {
+        CsoundState current = state;
+        if (current != CsoundState.STARTED && current != CsoundState.CLOSED) {
+            state = CsoundState.COMPILED;
+        }
+    }
+
+    private void markStarted() throws Throwable {
+        int ksmps = (int) csoundGetKsmps.invokeExact(csoundInstance);
+        int nchnls = getChannels(0);
+        int nchnlsInput = getChannels(1);
+
+        MemorySegment spin = (MemorySegment) csoundGetSpin.invokeExact(csoundInstance);
+        MemorySegment spout = (MemorySegment) csoundGetSpout.invokeExact(csoundInstance);
+
+        engineInfo = new EngineInfo(
+                (double) csoundGetSr.invokeExact(csoundInstance),
+                (double) csoundGetKr.invokeExact(csoundInstance),
+                ksmps, nchnls, nchnlsInput,
+                (double) csoundGet0dBFS.invokeExact(csoundInstance),
+                spin.reinterpret(myfltLayout.byteSize() * ksmps * nchnlsInput),
+                spout.reinterpret(myfltLayout.byteSize() * ksmps * nchnls));
+        memoryAccount.engineStarted(myfltLayout.byteSize() * ksmps * (nchnls + nchnlsInput));
+        state = CsoundState.STARTED;
+    }
+
+    private void requireStarted(String method) {
+        if (state != CsoundState.STARTED) {
+            throw new IllegalStateException(
+                    method + "() requires a started Csound instance (state: " + state + ")");
+        }
+    }
+
+    private void requireNotStarted(String method) {
+        CsoundState current = state;
+        if (current == CsoundState.STARTED) {
+            throw new IllegalStateException(
+                    method + "() cannot be called after start(); call reset() first");
+        }
+        requireNotClosed(method);
+    }
+
+    private void requireNotClosed(String method) {
+        if (state == CsoundState.CLOSED) {
+            throw new IllegalStateException(method + "() called on a closed Csound instance");
+        }
+    }
+
+    /**
+     * Adds a hook to be called around every performKsmps() call. Hooks are
+     * called in the order they were added. A hook that throws is reported
+     * and removed; the other hooks and the performance itself continue.
+     *
+     * @param hook PerformHook to add
+     */
+    public synchronized void addPerformHook(PerformHook hook) {
+        if (hook == null) {
+            return;
+        }
+        PerformHook[] hooks = Arrays.copyOf(performHooks, performHooks.length + 1);
+        hooks[hooks.length - 1] = hook;
+        performHooks = hooks;
+    }
+
+    /**
+     * Removes a previously added PerformHook.
+     *
+     * @param hook PerformHook to remove
+     */
+    public synchronized void removePerformHook(PerformHook hook) {
+        performHooks = Arrays.stream(performHooks)
+                .filter(h -> h != hook)
+                .toArray(PerformHook[]::new);
     }
 
     /**
@@ -575,10 +1038,26 @@ public class Csound {
      * zero return value, csoundPerform() can be called again to continue the
      * stopped performance. Otherwise, csoundReset() should be called to clean
      * up after the finished or failed performance.
+     *
+     * If no PerformHooks are registered and the Csound library provides
+     * csoundPerform(), the whole performance runs in a single native call.
+     * Otherwise performKsmps() is called repeatedly from Java so that hooks
+     * run every cycle. Hooks added while a native perform is running take
+     * effect on the next call to perform().
      * 
      * @return Returns a non-zero error code on failure.
      */
     public int perform() {
+        requireStarted("perform");
+        if (csoundPerform != null && performHooks.length == 0) {
+            try {
+                return (int) csoundPerform.invokeExact(csoundInstance);
+            } catch (Throwable t) {
+                t.printStackTrace();
+                return -1;
+            }
+        }
+
         int res;
         do {
             res = performKsmps();
@@ -592,10 +1071,21 @@ public class Csound {
      * performance. Enables external software to run successive Csound
      * performances without reloading Csound. Implies cleanup(), unless already
      * called.
+     *
+     * Perform hooks stay registered across a reset. Channel pointers, spin
+     * and spout segments and the EngineInfo obtained before the reset refer
+     * to freed engine memory and must not be used; start() creates a new
+     * EngineInfo, so hooks can detect a restart by comparing the instance
+     * returned by getEngineInfo() with the one they cached.
      */
     public void reset() {
+        requireNotClosed("reset");
         try {
             csoundReset.invokeExact(csoundInstance);
+            engineInfo = null;
+            memoryAccount.engineReleased();
+            resetCount++;
+            state = CsoundState.RESET;
         } catch (Throwable t) {
             t.printStackTrace();
         }
@@ -607,6 +1097,11 @@ public class Csound {
      * @return The number of audio sample frames per second.
      */
     public double getSr() {
+        requireNotClosed("getSr");
+        EngineInfo info = engineInfo;
+        if (info != null) {
+            return info.sr();
+        }
         try {
             return (double) csoundGetSr.invokeExact(csoundInstance);
         } catch (Throwable t) {
@@ -622,6 +1117,11 @@ public class Csound {
      * @return The number of control samples per second.
      */
     public double getKr() {
+        requireNotClosed("getKr");
+        EngineInfo info = engineInfo;
+        if (info != null) {
+            return info.kr();
+        }
         try {
             return (double) csoundGetKr.invokeExact(csoundInstance);
         } catch (Throwable t) {
@@ -636,6 +1136,11 @@ public class Csound {
      * @return The number of audio sample frames per control sample.
      */
     public int getKsmps() {
+        requireNotClosed("getKsmps");
+        EngineInfo info = engineInfo;
+        if (info != null) {
+            return info.ksmps();
+        }
         try {
             return (int) csoundGetKsmps.invokeExact(csoundInstance);
         } catch (Throwable t) {
@@ -652,6 +1157,11 @@ public class Csound {
      * @return The number of audio output channels
      */
     public int getChannels(int isInput) {
+        requireNotClosed("getChannels");
+        EngineInfo info = engineInfo;
+        if (info != null) {
+            return isInput == 1 ? info.nchnlsInput() : info.nchnls();
+        }
         try {
 
             if(isCsound6) {
@@ -675,6 +1185,11 @@ public class Csound {
      * @return The 0dBFS level of the spin/spout buffers.
      */
     public double get0dBFS() {
+        requireNotClosed("get0dBFS");
+        EngineInfo info = engineInfo;
+        if (info != null) {
+            return info.zeroDBFS();
+        }
         try {
             return (double) csoundGet0dBFS.invokeExact(csoundInstance);
         } catch (Throwable t) {
@@ -691,17 +1206,11 @@ public class Csound {
      *
      * @return MemorySegment of the Csound audio input working buffer
      *         (spin).
+     * @throws IllegalStateException if the instance has not been started
      */
     public MemorySegment getSpin() {
-        try (Arena arena = Arena.ofConfined()) {
-            MemorySegment spin = (MemorySegment) csoundGetSpin.invoke(csoundInstance);
-            spin = spin.reinterpret(JAVA_DOUBLE.byteSize() * getKsmps());
-
-            return spin;
-        } catch (Throwable t) {
-            t.printStackTrace();
-            return null;
-        }
+        requireStarted("getSpin");
+        return engineInfo.spin();
     }
 
     /**
@@ -711,17 +1220,11 @@ public class Csound {
      * ksmps * nchnls.
      *
      * @return MemorySegment of the Csound audio output working buffer (spout).
+     * @throws IllegalStateException if the instance has not been started
      */
     public MemorySegment getSpout() {
-        try (Arena arena = Arena.ofConfined()) {
-            MemorySegment spout = (MemorySegment) csoundGetSpout.invoke(csoundInstance);
-            spout = spout.reinterpret(JAVA_DOUBLE.byteSize() * getKsmps());
-
-            return spout;
-        } catch (Throwable t) {
-            t.printStackTrace();
-            return null;
-        }
+        requireStarted("getSpout");
+        return engineInfo.spout();
     }
 
     /**
@@ -732,6 +1235,7 @@ public class Csound {
      * @param value       Value to set.
      */
     public void setChannel(String channelName, double value) {
+        requireNotClosed("setChannel");
         if (channelName == null) {
             return;
         }
@@ -751,6 +1255,7 @@ public class Csound {
      * @param channelValue Value to set.
      */
     public void setStringChannel(String channelName, String channelValue) {
+        requireNotClosed("setStringChannel");
         if (channelName == null) {
             return;
         }
@@ -772,6 +1277,8 @@ public class Csound {
      * @param msgCallback Callback to execute to print messages.
      */
     public void setMessageCallback(MessageCallback msgCallback) {
+        requireNotClosed("setMessageCallback");
+        messageCallback = msgCallback;
         try (Arena arena = Arena.ofConfined()) {
 
             if (msgCallback == null) {
@@ -784,9 +1291,10 @@ public class Csound {
                     MethodType.methodType(void.class, MemorySegment.class, int.class, MemorySegment.class));
 
             MemorySegment callbackSegment = Linker.nativeLinker().upcallStub(
-                    callbackHandle.bindTo(msgCallback),
+                    callbackHandle.bindTo(new WeakMessageCallback(msgCallback)),
                     FunctionDescriptor.ofVoid(ADDRESS, JAVA_INT, ADDRESS),
-                    Arena.global());
+                    callbackArena);
+            memoryAccount.upcallStubCreated();
 
             csoundSetMessageStringCallback.invoke(csoundInstance, callbackSegment);
         } catch (Throwable t) {
@@ -794,15 +1302,188 @@ public class Csound {
         }
     }
 
+    /**
+     * Sets a ChannelCallback to be called by Csound when the invalue opcode
+     * requests a value from the host. Pass null to clear the callback.
+     *
+     * @param channelCallback Callback to execute for invalue.
+     */
+    public void setInputChannelCallback(ChannelCallback channelCallback) {
+        requireNotClosed("setInputChannelCallback");
+        inputChannelCallback = channelCallback;
+        setChannelCallback(csoundSetInputChannelCallback, channelCallback);
+    }
+
+    /**
+     * Sets a ChannelCallback to be called by Csound when the outvalue opcode
+     * sends a value to the host. Pass null to clear the callback.
+     *
+     * @param channelCallback Callback to execute for outvalue.
+     */
+    public void setOutputChannelCallback(ChannelCallback channelCallback) {
+        requireNotClosed("setOutputChannelCallback");
+        outputChannelCallback = channelCallback;
+        setChannelCallback(csoundSetOutputChannelCallback, channelCallback);
+    }
+
+    private void setChannelCallback(MethodHandle setter, ChannelCallback channelCallback) {
+        try {
+            if (channelCallback == null) {
+                setter.invoke(csoundInstance, MemorySegment.NULL);
+                return;
+            }
+
+            MethodHandle callbackHandle = MethodHandles.lookup().findVirtual(
+                    ChannelCallback.class, "callback",
+                    MethodType.methodType(void.class, MemorySegment.class, MemorySegment.class,
+                            MemorySegment.class, MemorySegment.class));
+
+            MemorySegment callbackSegment = Linker.nativeLinker().upcallStub(
+                    callbackHandle.bindTo(new WeakChannelCallback(channelCallback)),
+                    FunctionDescriptor.ofVoid(ADDRESS, ADDRESS, ADDRESS, ADDRESS),
+                    callbackArena);
+            memoryAccount.upcallStubCreated();
+
+            setter.invoke(csoundInstance, callbackSegment);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * Sets the Csound message level (from 0 to 231), a bit field equivalent
+     * to the -m command line flag.
+     *
+     * @param messageLevel message level
+     */
+    public void setMessageLevel(int messageLevel) {
+        requireNotClosed("setMessageLevel");
+        try {
+            csoundSetMessageLevel.invokeExact(csoundInstance, messageLevel);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the Csound message level (from 0 to 231).
+     *
+     * @return message level
+     */
+    public int getMessageLevel() {
+        requireNotClosed("getMessageLevel");
+        try {
+            return (int) csoundGetMessageLevel.invokeExact(csoundInstance);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Creates a buffer for storing messages printed by Csound. Messages are
+     * then retrieved with getFirstMessage() and popFirstMessage() instead of
+     * being delivered through a callback, so no Java code runs on the thread
+     * printing the message. Any MessageCallback should be cleared with
+     * setMessageCallback(null) first, as it takes precedence over the buffer.
+     *
+     * @param toStdOut if non-zero, messages are also printed to stdout
+     */
+    public void createMessageBuffer(int toStdOut) {
+        requireNotClosed("createMessageBuffer");
+        try {
+            csoundCreateMessageBuffer.invokeExact(csoundInstance, toStdOut);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the first message from the message buffer without removing it.
+     *
+     * @return first message, or null if the buffer is empty
+     */
+    public String getFirstMessage() {
+        requireNotClosed("getFirstMessage");
+        try {
+            MemorySegment msg = (MemorySegment) csoundGetFirstMessage.invokeExact(csoundInstance);
+            if (msg.equals(MemorySegment.NULL)) {
+                return null;
+            }
+            return msg.reinterpret(Integer.MAX_VALUE).getString(0);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the attribute parameter (see {@link MessageAttributes}) of the
+     * first message in the message buffer.
+     *
+     * @return message attributes
+     */
+    public int getFirstMessageAttr() {
+        requireNotClosed("getFirstMessageAttr");
+        try {
+            return (int) csoundGetFirstMessageAttr.invokeExact(csoundInstance);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Removes the first message from the message buffer.
+     */
+    public void popFirstMessage() {
+        requireNotClosed("popFirstMessage");
+        try {
+            csoundPopFirstMessage.invokeExact(csoundInstance);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the number of pending messages in the message buffer.
+     *
+     * @return number of pending messages
+     */
+    public int getMessageCnt() {
+        requireNotClosed("getMessageCnt");
+        try {
+            return (int) csoundGetMessageCnt.invokeExact(csoundInstance);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Releases all memory used by the message buffer.
+     */
+    public void destroyMessageBuffer() {
+        requireNotClosed("destroyMessageBuffer");
+        try {
+            csoundDestroyMessageBuffer.invokeExact(csoundInstance);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
     /**
      * Returns a MemorySegment for a control channel. Allows efficient reading
      * and writing of the channel as it does not have to look up the channel
-     * each time as it does with getChannel().
+     * each time as it does with getChannel(). The value is a MYFLT; use
+     * getMyflt() and setMyflt() to access it.
      *
      * @param channelName Name of control channel
-     * @return MemorySegment for control channel data pointer.
+     * @return MemorySegment for control channel data pointer, or null if
+     *         Csound could not create or find the channel.
      */
     public MemorySegment getControlChannelPtr(String channelName) {
+        requireNotClosed("getControlChannelPtr");
         if (channelName == null) {
             return null;
         }
@@ -813,9 +1494,12 @@ public class Csound {
             int retVal = (int) csoundGetChannelPtr.invoke(csoundInstance, channelPtrPtr, nameSegment,
                     CSOUND_CONTROL_CHANNEL | CSOUND_INPUT_CHANNEL | CSOUND_OUTPUT_CHANNEL);
 
-            // TODO - check retval, see ctcsound.py for example
             MemorySegment channelPtr = channelPtrPtr.get(ADDRESS, 0);
-            channelPtr = channelPtr.reinterpret(JAVA_DOUBLE.byteSize());
+            if (retVal != 0 || channelPtr.equals(MemorySegment.NULL)) {
+                return null;
+            }
+            channelPtr = channelPtr.reinterpret(myfltLayout.byteSize());
+            memoryAccount.channelMapped(channelName, channelPtr.byteSize());
 
             return channelPtr;
         } catch (Throwable t) {
@@ -828,12 +1512,14 @@ public class Csound {
      * Returns a MemorySegment for an audio channel. Allows efficient reading
      * and writing of the channel as it does not have to look up the channel
      * each time as it does with getChannel(). MemorySegment size is set to
-     * ksmps length.
+     * ksmps MYFLTs.
      *
      * @param channelName Name of audio channel
-     * @return MemorySegment for audio channel data pointer.
+     * @return MemorySegment for audio channel data pointer, or null if
+     *         Csound could not create or find the channel.
      */
     public MemorySegment getAudioChannelPtr(String channelName) {
+        requireNotClosed("getAudioChannelPtr");
         if (channelName == null) {
             return null;
         }
@@ -844,9 +1530,12 @@ public class Csound {
             int retVal = (int) csoundGetChannelPtr.invoke(csoundInstance, channelPtrPtr, nameSegment,
                     CSOUND_AUDIO_CHANNEL | CSOUND_INPUT_CHANNEL | CSOUND_OUTPUT_CHANNEL);
 
-            // TODO - check retval, see ctcsound.py for example
             MemorySegment channelPtr = channelPtrPtr.get(ADDRESS, 0);
-            channelPtr = channelPtr.reinterpret(JAVA_DOUBLE.byteSize() * getKsmps());
+            if (retVal != 0 || channelPtr.equals(MemorySegment.NULL)) {
+                return null;
+            }
+            channelPtr = channelPtr.reinterpret(myfltLayout.byteSize() * getKsmps());
+            memoryAccount.channelMapped(channelName, channelPtr.byteSize());
 
             return channelPtr;
         } catch (Throwable t) {
@@ -855,12 +1544,85 @@ public class Csound {
         }
     }
 
+    /**
+     * Destroys the underlying Csound instance immediately rather than waiting
+     * for the Cleaner to run once this object is unreachable. The Csound
+     * object must not be used after it has been closed. Calling close() more
+     * than once has no effect.
+     */
+    @Override
+    public void close() {
+        state = CsoundState.CLOSED;
+        engineInfo = null;
+        cleanup.closed = true;
+        cleanable.clean();
+    }
+
+    /**
+     * Returns the native memory currently attributed to this instance. See
+     * {@link NativeMemoryMetrics} for all instances and JMX access.
+     *
+     * @return memory snapshot
+     */
+    public NativeMemoryStats getNativeMemoryStats() {
+        return memoryAccount.snapshot();
+    }
+
+    /**
+     * Account that components allocating native memory on behalf of this
+     * instance report their allocations to.
+     */
+    NativeMemoryAccount memoryAccount() {
+        return memoryAccount;
+    }
+
+    private static class WeakMessageCallback implements MessageCallback {
+
+        private final WeakReference<MessageCallback> target;
+
+        WeakMessageCallback(MessageCallback target) {
+            this.target = new WeakReference<>(target);
+        }
+
+        @Override
+        public void callback(MemorySegment csound, int attr, MemorySegment msg) {
+            MessageCallback callback = target.get();
+            if (callback != null) {
+                callback.callback(csound, attr, msg);
+            }
+        }
+    }
+
+    private static class WeakChannelCallback implements ChannelCallback {
+
+        private final WeakReference<ChannelCallback> target;
+
+        WeakChannelCallback(ChannelCallback target) {
+            this.target = new WeakReference<>(target);
+        }
+
+        @Override
+        public void callback(MemorySegment csound, MemorySegment channelName,
+                MemorySegment channelValuePtr, MemorySegment channelType) {
+            ChannelCallback callback = target.get();
+            if (callback != null) {
+                callback.callback(csound, channelName, channelValuePtr, channelType);
+            }
+        }
+    }
+
     private static class CsoundCleanup implements Runnable {
 
         private final MemorySegment csoundInstance;
+        private final Arena callbackArena;
+        private final NativeMemoryAccount memoryAccount;
+        private volatile boolean closed = false;
 
-        CsoundCleanup(MemorySegment csoundInstance) {
+        CsoundCleanup(MemorySegment csoundInstance, Arena callbackArena,
+                NativeMemoryAccount memoryAccount) {
             this.csoundInstance = csoundInstance;
+            this.callbackArena = callbackArena;
+            this.memoryAccount = memoryAccount;
         }
 
         @Override
@@ -870,6 +1632,10 @@ public class Csound {
             } catch (Throwable e) {
                 e.printStackTrace();
             }
+            // no callbacks can arrive once the instance is destroyed
+            callbackArena.close();
+            memoryAccount.engineReleased();
+            NativeMemoryMetrics.release(memoryAccount, closed);
         }
     }
 }
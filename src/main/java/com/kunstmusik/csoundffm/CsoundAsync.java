@@ -0,0 +1,204 @@
+/*
+    CsoundAsync.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Asynchronous facade over a Csound instance for applications running on
+ * virtual threads.
+ *
+ * Long native calls such as compile or perform pin the carrier thread of a
+ * virtual thread for their whole duration. CsoundAsync runs every call on a
+ * single dedicated platform thread owned by this facade and returns a
+ * CompletableFuture, so virtual threads can wait on the result with join()
+ * without occupying a carrier. Because one thread serves each instance,
+ * calls are serialized in submission order and the Csound instance is only
+ * ever touched from that thread.
+ *
+ * <pre>
+ * try (var cs = new CsoundAsync(new Csound())) {
+ *     cs.setOption("-n").join();
+ *     cs.compileOrc(orc, 0).join();
+ *     cs.start().join();
+ *     cs.perform().join();
+ * }
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class CsoundAsync implements AutoCloseable {
+
+    private final Csound csound;
+    private final ExecutorService executor;
+    private boolean closed = false;
+
+    /**
+     * Creates an asynchronous facade for the given Csound instance. The
+     * instance must not be used directly once it is wrapped.
+     *
+     * @param csound Csound instance to confine to the facade's thread
+     */
+    public CsoundAsync(Csound csound) {
+        this.csound = csound;
+        this.executor = Executors.newSingleThreadExecutor(
+                Thread.ofPlatform().name("csound-async").daemon().factory());
+    }
+
+    /**
+     * Runs an arbitrary operation against the wrapped Csound instance on the
+     * facade's thread. Use this for calls that do not have a dedicated method,
+     * or to group several calls into one task.
+     *
+     * @param <T>       result type
+     * @param operation operation to run with the Csound instance
+     * @return future completed with the result of the operation
+     */
+    public <T> CompletableFuture<T> submit(Function<Csound, T> operation) {
+        return CompletableFuture.supplyAsync(() -> operation.apply(csound), executor);
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#setOption(String)}.
+     *
+     * @param option Single Csound option
+     * @return future completed with the return code
+     */
+    public CompletableFuture<Integer> setOption(String option) {
+        return submit(cs -> cs.setOption(option));
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#compile(String[])}.
+     *
+     * @param args String arguments as if using command-line Csound
+     * @return future completed with the return code
+     */
+    public CompletableFuture<Integer> compile(String[] args) {
+        return submit(cs -> cs.compile(args));
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#compileCSD(String, int)}.
+     *
+     * @param csd  Csound CSD text or file name
+     * @param mode 0 = treat csd as file name, 1 = treat csd as text
+     * @return future completed with the return code
+     */
+    public CompletableFuture<Integer> compileCSD(String csd, int mode) {
+        return submit(cs -> cs.compileCSD(csd, mode));
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#compileOrc(String, int)}.
+     *
+     * @param orcCode Csound orchestra code
+     * @param async   0 for synchronous, 1 for asynchronous.
+     * @return future completed with the return code
+     */
+    public CompletableFuture<Integer> compileOrc(String orcCode, int async) {
+        return submit(cs -> cs.compileOrc(orcCode, async));
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#evalCode(String)}.
+     *
+     * @param orcCode Csound orchestra code to evaluate
+     * @return future completed with the value passed to 'return'
+     */
+    public CompletableFuture<Double> evalCode(String orcCode) {
+        return submit(cs -> cs.evalCode(orcCode));
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#eventString(String, int)}.
+     *
+     * @param scoreText Csound score text.
+     * @param async     0 for synchronous, 1 for asynchronous.
+     * @return future completed once the event has been sent
+     */
+    public CompletableFuture<Void> eventString(String scoreText, int async) {
+        return submit(cs -> {
+            cs.eventString(scoreText, async);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#start()}.
+     *
+     * @return future completed with the return code
+     */
+    public CompletableFuture<Integer> start() {
+        return submit(Csound::start);
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#performKsmps()}.
+     *
+     * @return future completed with 1 if performance is done, 0 otherwise
+     */
+    public CompletableFuture<Integer> performKsmps() {
+        return submit(Csound::performKsmps);
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#perform()}. Calls submitted after
+     * perform() run only once the performance has finished.
+     *
+     * @return future completed with the return code
+     */
+    public CompletableFuture<Integer> perform() {
+        return submit(Csound::perform);
+    }
+
+    /**
+     * Asynchronous version of {@link Csound#reset()}.
+     *
+     * @return future completed once the instance has been reset
+     */
+    public CompletableFuture<Void> reset() {
+        return submit(cs -> {
+            cs.reset();
+            return null;
+        });
+    }
+
+    /**
+     * Closes the wrapped Csound instance after all previously submitted calls
+     * have run, then stops the facade's thread. Calling close() more than
+     * once has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        executor.submit(csound::close);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+    CsoundBenchmark.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline render throughput benchmark (useful for developers of CsoundFFM).
+ *
+ * Renders trapped.csd (its whole score) and a set of synthetic orchestras
+ * (for the given duration) without audio output across several ksmps
+ * values and instance counts. For each run it
+ * reports realtime factor, blocks per second, wall time, Java allocation
+ * rate of the rendering threads and peak RSS of the process during the run.
+ * The peak is reset before each run through /proc/self/clear_refs, so it is
+ * only reported on Linux; elsewhere it is -1. Results are
+ * printed as a table and appended as JSON lines to an output file so they
+ * can be compared across binding versions.
+ *
+ * <pre>
+ * java --enable-native-access=ALL-UNNAMED -cp csoundffm.jar \
+ *     com.kunstmusik.csoundffm.CsoundBenchmark \
+ *     --cases=trapped,oscbank --ksmps=16,64 --instances=1,4 --duration=10
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class CsoundBenchmark {
+
+    private static final String OSCBANK_ORC = """
+            0dbfs = 1
+            instr 1
+                iamp = 0.5 / 64
+                icount = 0
+                while icount < 64 do
+                    schedule(2, 0, p3, 110 * (icount + 1), iamp)
+                    icount += 1
+                od
+            endin
+            instr 2
+                a1 = oscili(p5, p4)
+                outall(a1)
+            endin
+            """;
+
+    private static final String EVENTS_ORC = """
+            0dbfs = 1
+            instr 1
+                kmetro = metro(200)
+                if kmetro == 1 then
+                    schedulek(2, 0, 0.05, random:k(200, 2000))
+                endif
+            endin
+            instr 2
+                a1 = vco2(0.05, p4) * expseg(1, p3, 0.001)
+                a1 = moogladder(a1, 4000, 0.3)
+                outall(a1)
+            endin
+            """;
+
+    private static final String CHANNELS_ORC = """
+            0dbfs = 1
+            instr 1
+                ichn = p4
+                a1 = oscili(0.1, 100 * ichn)
+                chnset(a1, sprintf("bus%d", ichn))
+                outch(ichn, a1)
+            endin
+            instr 2
+                icount = 1
+                while icount <= nchnls do
+                    schedule(1, 0, p3, icount)
+                    icount += 1
+                od
+            endin
+            """;
+
+    private record Result(String benchCase, int ksmps, int instances, double wallSeconds,
+            double audioSeconds, long blocks, long allocatedBytes, long peakRssBytes) {
+
+        double realtimeFactor() {
+            return audioSeconds / wallSeconds;
+        }
+
+        double blocksPerSecond() {
+            return blocks / wallSeconds;
+        }
+
+        double allocationRate() {
+            return allocatedBytes / wallSeconds;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"timestamp\":\"%s\",\"csoundVersion\":%d,\"bindingVersion\":\"%s\","
+                            + "\"case\":\"%s\",\"ksmps\":%d,\"instances\":%d,\"wallSeconds\":%.6f,"
+                            + "\"audioSeconds\":%.6f,\"realtimeFactor\":%.3f,\"blocks\":%d,"
+                            + "\"blocksPerSecond\":%.1f,\"allocatedBytes\":%d,"
+                            + "\"allocationBytesPerSecond\":%.1f,\"peakRssBytes\":%d}",
+                    Instant.now(), Csound.getVersion(), bindingVersion(), benchCase, ksmps,
+                    instances, wallSeconds, audioSeconds, realtimeFactor(), blocks,
+                    blocksPerSecond(), allocatedBytes, allocationRate(), peakRssBytes);
+        }
+    }
+
+    // audio seconds, blocks and allocated bytes for one instance
+    private record InstanceStats(double audioSeconds, long blocks, long allocatedBytes) {
+    }
+
+    private static String bindingVersion() {
+        String version = Csound.class.getPackage().getImplementationVersion();
+        return version == null ? "dev" : version;
+    }
+
+    private static long threadAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean) {
+            return bean.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Resets the peak resident set size reported by peakRss() to the current
+     * resident set size.
+     *
+     * @return false where this is not supported (only Linux is supported)
+     */
+    private static boolean resetPeakRss() {
+        try {
+            Files.writeString(Path.of("/proc/self/clear_refs"), "5");
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // not available on this platform
+            return false;
+        }
+    }
+
+    /**
+     * Returns the peak resident set size of this process since the last
+     * resetPeakRss(), or -1 where it is not available.
+     */
+    private static long peakRss() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    String[] parts = line.trim().split("\\s+");
+                    return Long.parseLong(parts[1]) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not available on this platform
+        }
+        return -1;
+    }
+
+    private static InstanceStats renderInstance(String benchCase, int ksmps, double duration) {
+        long allocStart = threadAllocatedBytes();
+
+        try (Csound csound = new Csound()) {
+            csound.createMessageBuffer(0);
+            csound.setMessageLevel(0);
+
+            if (benchCase.equals("trapped")) {
+                csound.compile(new String[] { "csound", "-n", "-d", "-m0",
+                        "--ksmps=" + ksmps, "trapped.csd" });
+            } else {
+                csound.setOption("-n");
+                csound.setOption("-d");
+                csound.setOption("-m0");
+                csound.setOption("--sample-rate=48000");
+                csound.setOption("--ksmps=" + ksmps);
+                csound.setOption("--nchnls=" + (benchCase.equals("channels") ? 16 : 2));
+
+                String orc = switch (benchCase) {
+                    case "oscbank" -> OSCBANK_ORC;
+                    case "events" -> EVENTS_ORC;
+                    case "channels" -> CHANNELS_ORC;
+                    default -> throw new IllegalArgumentException("Unknown benchmark case: " + benchCase);
+                };
+                csound.compileOrc(orc, 0);
+                csound.start();
+                csound.eventString(String.format(Locale.ROOT, "i%d 0 %f",
+                        benchCase.equals("channels") ? 2 : 1, duration), 0);
+            }
+
+            EngineInfo info = csound.getEngineInfo();
+            long maxBlocks = (long) Math.ceil(duration * info.kr());
+            long blocks = 0;
+
+            while (blocks < maxBlocks && csound.performKsmps() == 0) {
+                blocks++;
+            }
+
+            while (csound.getMessageCnt() > 0) {
+                csound.popFirstMessage();
+            }
+            csound.destroyMessageBuffer();
+
+            return new InstanceStats(blocks * info.ksmps() / info.sr(), blocks,
+                    threadAllocatedBytes() - allocStart);
+        }
+    }
+
+    private static Result run(String benchCase, int ksmps, int instances, double duration)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(instances);
+        try {
+            List<Callable<InstanceStats>> tasks = new ArrayList<>();
+            for (int i = 0; i < instances; i++) {
+                tasks.add(() -> renderInstance(benchCase, ksmps, duration));
+            }
+
+            boolean peakReset = resetPeakRss();
+            long start = System.nanoTime();
+            List<Future<InstanceStats>> futures = executor.invokeAll(tasks);
+            double wallSeconds = (System.nanoTime() - start) / 1e9;
+
+            double audioSeconds = 0;
+            long blocks = 0;
+            long allocated = 0;
+            for (Future<InstanceStats> future : futures) {
+                InstanceStats stats = future.get();
+                audioSeconds += stats.audioSeconds();
+                blocks += stats.blocks();
+                allocated += stats.allocatedBytes();
+            }
+            return new Result(benchCase, ksmps, instances, wallSeconds, audioSeconds, blocks,
+                    allocated, peakReset ? peakRss() : -1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        HarnessArgs options = HarnessArgs.parse(args,
+                "--cases=a,b --ksmps=n,m --instances=n,m --duration=seconds "
+                        + "--repetitions=n --out=file",
+                "--cases", "--ksmps", "--instances", "--duration", "--repetitions", "--out");
+        String[] cases = options.getStrings("--cases", "trapped", "oscbank", "events", "channels");
+        int[] ksmpsValues = options.getInts("--ksmps", 1, 16, 64, 256);
+        int[] instanceCounts = options.getInts("--instances",
+                1, Runtime.getRuntime().availableProcessors());
+        double duration = options.getDouble("--duration", 10.0);
+        int repetitions = options.getInt("--repetitions", 3);
+        Path output = options.getPath("--out", "bench_output.txt");
+
+        System.out.printf("Csound Version: %d%n", Csound.getVersion());
+        System.out.printf("%-10s %6s %9s %9s %9s %12s %12s %10s%n", "case", "ksmps", "instances",
+                "wall(s)", "RTF", "blocks/s", "alloc(B/s)", "RSS(MB)");
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            for (String benchCase : cases) {
+                for (int ksmps : ksmpsValues) {
+                    for (int instances : instanceCounts) {
+                        // warm-up run, not reported
+                        run(benchCase, ksmps, instances, Math.min(duration, 1.0));
+
+                        // trapped.csd always renders its whole score
+                        double renderDuration = benchCase.equals("trapped")
+                                ? Double.POSITIVE_INFINITY
+                                : duration;
+
+                        for (int rep = 0; rep < repetitions; rep++) {
+                            Result result = run(benchCase, ksmps, instances, renderDuration);
+                            System.out.printf(Locale.ROOT, "%-10s %6d %9d %9.3f %9.2f %12.1f %12.1f %10.1f%n",
+                                    benchCase, ksmps, instances, result.wallSeconds(),
+                                    result.realtimeFactor(), result.blocksPerSecond(),
+                                    result.allocationRate(), result.peakRssBytes() / 1048576.0);
+                            out.println(result.toJson());
+                            out.flush();
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
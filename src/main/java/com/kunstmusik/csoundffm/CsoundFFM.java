@@ -22,8 +22,6 @@
  */
 package com.kunstmusik.csoundffm;
 
-import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
-
 import java.lang.foreign.MemorySegment;
 
 /**
@@ -141,7 +139,7 @@ public class CsoundFFM {
                 freqMultiplier = (freqMultiplier + 1) % 16;
                 csound.setStringChannel("strChannel", stringVals[freqMultiplier % 2]);
                 var v = ((freqMultiplier % 12) + 1) * 100.0;
-                channelPtr.set(JAVA_DOUBLE, 0, v);
+                Csound.setMyflt(channelPtr, 0, v);
             }
             csound.setChannel("freq", 60 * (freqMultiplier + 1));
             counter++;
@@ -178,16 +176,16 @@ public class CsoundFFM {
 
         for(int i = 0; i < ksmps; i++) {
             System.out.println (Math.cos(i / 300.0));
-            spin.setAtIndex(JAVA_DOUBLE, i, Math.cos(i / 300.0));
-            // spin.set(JAVA_DOUBLE, i, Math.sin(i / 300));
+            Csound.setMyflt(spin, i, Math.cos(i / 300.0));
+            // Csound.setMyflt(spin, i, Math.sin(i / 300));
             // System.out.println( Math.sin(i / 300.0));
         }
 
         csound.performKsmps();
 
         for(int i = 0; i < ksmps; i++) {
-            double original = spin.getAtIndex(JAVA_DOUBLE, i);
-            double returned = spout.getAtIndex(JAVA_DOUBLE, i);
+            double original = Csound.getMyflt(spin, i);
+            double returned = Csound.getMyflt(spout, i);
             System.out.printf("Match: %b [ %g | %g ]\n", original == returned, original, returned);
         }
         csound.reset();
@@ -0,0 +1,44 @@
+/*
+    CsoundMemoryMXBean.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * JMX view of one Csound instance's native memory, registered as
+ * com.kunstmusik.csoundffm:type=CsoundMemory,id=&lt;instanceId&gt; once
+ * {@link NativeMemoryMetrics#registerMBeans()} has been called. See
+ * {@link NativeMemoryStats} for the meaning of each attribute.
+ *
+ * @author Steven Yi
+ */
+public interface CsoundMemoryMXBean {
+
+    public long getInstanceId();
+
+    public long getBindingBytes();
+
+    public long getPeakBindingBytes();
+
+    public int getUpcallStubs();
+
+    public long getCsoundBytes();
+}
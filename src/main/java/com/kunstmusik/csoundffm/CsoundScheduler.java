@@ -0,0 +1,481 @@
+/*
+    CsoundScheduler.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs several started Csound instances on a fixed set of scheduler threads,
+ * treating each performKsmps() call as a schedulable unit.
+ *
+ * Realtime instances are released once per block period (ksmps / sr) and
+ * must finish each block within that period. Released realtime blocks are
+ * run earliest deadline first across all threads: whenever a thread becomes
+ * free it takes the released block with the earliest deadline that no other
+ * thread is running. Offline instances take turns in the remaining time,
+ * each thread running up to sliceBlocks blocks of one instance at a time; a
+ * slice ends early as soon as a realtime block is released. Blocks are not
+ * preempted, so one offline block delays a realtime release by at most its
+ * own duration when every thread is busy. An instance is only ever performed
+ * by one thread at a time, so a single instance never uses more than one
+ * core.
+ *
+ * An instance leaves the scheduler when performKsmps() returns non-zero, when
+ * it throws, or when its task is cancelled. Instances must not be performed
+ * from any other thread while scheduled.
+ *
+ * <pre>
+ * try (var scheduler = new CsoundScheduler(16)) {
+ *     var live = scheduler.addRealtime("live", liveCsound);
+ *     var render = scheduler.addOffline("render", renderCsound);
+ *     scheduler.start();
+ *     render.completion().join();
+ *     System.out.println(live.getStats());
+ * }
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class CsoundScheduler implements AutoCloseable {
+
+    // wake this long before a realtime release and spin the rest
+    private static final long SPIN_NANOS = 50_000;
+    private static final long IDLE_PARK_NANOS = 10_000_000;
+
+    private final int sliceBlocks;
+    private final int threadCount;
+
+    private volatile Task[] realtimeTasks = new Task[0];
+    private volatile Task[] offlineTasks = new Task[0];
+    private final AtomicInteger offlineCursor = new AtomicInteger();
+
+    private volatile boolean running = false;
+    private volatile Thread[] schedulerThreads = new Thread[0];
+
+    /**
+     * Creates a scheduler with one thread per available processor.
+     *
+     * @param sliceBlocks maximum number of consecutive blocks an offline
+     *                    instance runs before the next offline instance gets
+     *                    a turn
+     */
+    public CsoundScheduler(int sliceBlocks) {
+        this(sliceBlocks, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param sliceBlocks maximum number of consecutive blocks an offline
+     *                    instance runs before the next offline instance gets
+     *                    a turn
+     * @param threads     number of scheduler threads
+     */
+    public CsoundScheduler(int sliceBlocks, int threads) {
+        if (sliceBlocks < 1) {
+            throw new IllegalArgumentException("sliceBlocks must be at least 1");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.sliceBlocks = sliceBlocks;
+        this.threadCount = threads;
+    }
+
+    /**
+     * Handle for an instance added to the scheduler.
+     */
+    public static final class Task {
+
+        private final String name;
+        private final Csound csound;
+        private final boolean realtime;
+        private final long periodNanos;
+        private final long addedNanos;
+        private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+
+        private volatile boolean cancelled = false;
+
+        // set while a scheduler thread performs or finishes the instance;
+        // the fields below are only written by the thread holding it
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile long releaseNanos;
+        private volatile long blocks = 0;
+        private volatile long deadlineMisses = 0;
+        private volatile long maxLatenessNanos = 0;
+        private volatile long busyNanos = 0;
+
+        private Task(String name, Csound csound, boolean realtime, long periodNanos) {
+            this.name = name;
+            this.csound = csound;
+            this.realtime = realtime;
+            this.periodNanos = periodNanos;
+            this.addedNanos = System.nanoTime();
+            this.releaseNanos = addedNanos;
+        }
+
+        /**
+         * Returns the name the instance was added with.
+         *
+         * @return task name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the scheduled Csound instance.
+         *
+         * @return Csound instance
+         */
+        public Csound getCsound() {
+            return csound;
+        }
+
+        /**
+         * Returns whether the instance was added with addRealtime().
+         *
+         * @return true for realtime instances, false for offline
+         */
+        public boolean isRealtime() {
+            return realtime;
+        }
+
+        /**
+         * Returns the block period used for deadlines.
+         *
+         * @return nanoseconds per block, or 0 for offline instances
+         */
+        public long getPeriodNanos() {
+            return periodNanos;
+        }
+
+        /**
+         * Returns a future completed once the instance has left the
+         * scheduler: with the positive performKsmps() result that ended it,
+         * with -1 if it was cancelled or the scheduler was closed, or
+         * exceptionally if performKsmps() threw or returned a negative error
+         * code. After completion the instance may be used or closed freely.
+         *
+         * @return completion future
+         */
+        public CompletableFuture<Integer> completion() {
+            return completion;
+        }
+
+        /**
+         * Removes the instance from the scheduler before its next block.
+         *
+         * @return completion future
+         */
+        public CompletableFuture<Integer> cancel() {
+            cancelled = true;
+            return completion;
+        }
+
+        /**
+         * Returns the statistics of the instance so far.
+         *
+         * @return current statistics
+         */
+        public SchedulerStats getStats() {
+            return new SchedulerStats(name, realtime, blocks, deadlineMisses,
+                    maxLatenessNanos, busyNanos, System.nanoTime() - addedNanos);
+        }
+    }
+    /**
+     * Adds a realtime instance. Its first block is released immediately and
+     * each following block one period later.
+     *
+     * @param name   name reported in statistics
+     * @param csound started Csound instance
+     * @return task handle
+     * @throws IllegalStateException if the instance has not been started
+     */
+    public Task addRealtime(String name, Csound csound) {
+        EngineInfo info = csound.getEngineInfo();
+        long period = Math.round(info.ksmps() * 1_000_000_000.0 / info.sr());
+        Task task = new Task(name, csound, true, period);
+        synchronized (this) {
+            realtimeTasks = append(realtimeTasks, task);
+        }
+        wake();
+        return task;
+    }
+
+    /**
+     * Adds an offline instance, run whenever no realtime block is due.
+     *
+     * @param name   name reported in statistics
+     * @param csound started Csound instance
+     * @return task handle
+     * @throws IllegalStateException if the instance has not been started
+     */
+    public Task addOffline(String name, Csound csound) {
+        csound.getEngineInfo();
+        Task task = new Task(name, csound, false, 0);
+        synchronized (this) {
+            offlineTasks = append(offlineTasks, task);
+        }
+        wake();
+        return task;
+    }
+
+    /**
+     * Returns statistics for all instances currently scheduled.
+     *
+     * @return list of statistics, realtime instances first
+     */
+    public List<SchedulerStats> getStats() {
+        List<SchedulerStats> stats = new ArrayList<>();
+        for (Task task : realtimeTasks) {
+            stats.add(task.getStats());
+        }
+        for (Task task : offlineTasks) {
+            stats.add(task.getStats());
+        }
+        return stats;
+    }
+
+    /** Starts the scheduler threads. */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = Thread.ofPlatform().name("csound-scheduler-" + i)
+                    .priority(Thread.MAX_PRIORITY).daemon().start(this::run);
+        }
+        schedulerThreads = threads;
+    }
+
+    private void wake() {
+        for (Thread thread : schedulerThreads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            long now = System.nanoTime();
+            Task[] realtime = realtimeTasks;
+
+            Task due = null;
+            long nextRelease = Long.MAX_VALUE;
+            for (Task task : realtime) {
+                long release = task.releaseNanos;
+                if (release > now) {
+                    nextRelease = Math.min(nextRelease, release);
+                } else if (!task.claimed.get() && (due == null
+                        || release + task.periodNanos < due.releaseNanos + due.periodNanos)) {
+                    due = task;
+                }
+            }
+
+            if (due != null) {
+                if (due.claimed.compareAndSet(false, true)) {
+                    try {
+                        runRealtime(due);
+                    } finally {
+                        due.claimed.set(false);
+                    }
+                }
+            } else if (!runOfflineSlice(nextRelease)) {
+                if (nextRelease == Long.MAX_VALUE) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                } else {
+                    long wait = nextRelease - System.nanoTime();
+                    if (wait > SPIN_NANOS) {
+                        LockSupport.parkNanos(wait - SPIN_NANOS);
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Runs one block of a realtime instance claimed by this thread. */
+    private void runRealtime(Task task) {
+        if (task.completion.isDone()) {
+            // finished by another thread since realtime was read
+            return;
+        }
+        if (task.cancelled) {
+            cancelled(task);
+            return;
+        }
+        // another thread may have run this release since it was selected
+        if (task.releaseNanos > System.nanoTime()) {
+            return;
+        }
+        long deadline = task.releaseNanos + task.periodNanos;
+        long start = System.nanoTime();
+        int result = perform(task);
+        long end = System.nanoTime();
+        task.busyNanos += end - start;
+        task.blocks++;
+        if (end > deadline) {
+            task.deadlineMisses++;
+            task.maxLatenessNanos = Math.max(task.maxLatenessNanos, end - deadline);
+        }
+        // more than a full period behind: drop the backlog rather than
+        // running blocks back to back to catch up
+        task.releaseNanos = end > deadline + task.periodNanos ? end : deadline;
+        if (result != 0) {
+            finish(task, result);
+        }
+    }
+
+    /**
+     * Claims the next offline instance no other thread is running and runs
+     * it until its slice is used up or a realtime block is released.
+     *
+     * @return false if there was no offline instance to run
+     */
+    private boolean runOfflineSlice(long nextRelease) {
+        Task[] offline = offlineTasks;
+        for (int n = 0; n < offline.length; n++) {
+            Task task = offline[Math.floorMod(offlineCursor.getAndIncrement(), offline.length)];
+            if (!task.claimed.compareAndSet(false, true)) {
+                continue;
+            }
+            try {
+                if (task.cancelled) {
+                    cancelled(task);
+                    return true;
+                }
+                if (task.completion.isDone()) {
+                    // finished by another thread since offline was read
+                    continue;
+                }
+                for (int i = 0; i < sliceBlocks; i++) {
+                    long start = System.nanoTime();
+                    if (i > 0 && start >= nextRelease) {
+                        break;
+                    }
+                    int result = perform(task);
+                    task.busyNanos += System.nanoTime() - start;
+                    task.blocks++;
+                    if (result != 0) {
+                        finish(task, result);
+                        break;
+                    }
+                }
+                return true;
+            } finally {
+                task.claimed.set(false);
+            }
+        }
+        return false;
+    }
+
+    private int perform(Task task) {
+        try {
+            return task.csound.performKsmps();
+        } catch (Throwable t) {
+            remove(task);
+            task.completion.completeExceptionally(t);
+            return -1;
+        }
+    }
+
+    private void finish(Task task, int result) {
+        remove(task);
+        if (result < 0) {
+            task.completion.completeExceptionally(new IllegalStateException(
+                    "performKsmps() of " + task.name + " returned " + result));
+        } else {
+            task.completion.complete(result);
+        }
+    }
+
+    private void cancelled(Task task) {
+        remove(task);
+        task.completion.complete(-1);
+    }
+
+    private synchronized void remove(Task task) {
+        if (task.realtime) {
+            realtimeTasks = without(realtimeTasks, task);
+        } else {
+            offlineTasks = without(offlineTasks, task);
+        }
+    }
+
+    private static Task[] append(Task[] tasks, Task task) {
+        Task[] copy = Arrays.copyOf(tasks, tasks.length + 1);
+        copy[tasks.length] = task;
+        return copy;
+    }
+
+    private static Task[] without(Task[] tasks, Task task) {
+        for (int i = 0; i < tasks.length; i++) {
+            if (tasks[i] == task) {
+                Task[] copy = new Task[tasks.length - 1];
+                System.arraycopy(tasks, 0, copy, 0, i);
+                System.arraycopy(tasks, i + 1, copy, i, tasks.length - i - 1);
+                return copy;
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Stops the scheduler threads and completes every remaining task with
+     * -1. The Csound instances themselves are not closed.
+     */
+    @Override
+    public void close() {
+        Thread[] threads;
+        synchronized (this) {
+            running = false;
+            threads = schedulerThreads;
+            schedulerThreads = new Thread[0];
+        }
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Task task : realtimeTasks) {
+            cancelled(task);
+        }
+        for (Task task : offlineTasks) {
+            cancelled(task);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+    CsoundState.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * Lifecycle states of a {@link Csound} instance.
+ *
+ * <pre>
+ * CREATED -&gt; OPTIONS_SET -&gt; COMPILED -&gt; STARTED -&gt; RESET -&gt; ...
+ * </pre>
+ *
+ * compile() moves directly to STARTED as it starts Csound internally. Any
+ * state may move to CLOSED.
+ *
+ * @author Steven Yi
+ */
+public enum CsoundState {
+    /** Instance created, nothing configured yet. */
+    CREATED,
+    /** One or more options have been set. */
+    OPTIONS_SET,
+    /** Orchestra or CSD compiled but not yet started. */
+    COMPILED,
+    /** start() has succeeded; the instance can be performed. */
+    STARTED,
+    /** reset() has been called; the instance can be configured again. */
+    RESET,
+    /** close() has been called; the instance can no longer be used. */
+    CLOSED
+}
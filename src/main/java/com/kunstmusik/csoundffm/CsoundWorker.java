@@ -0,0 +1,446 @@
+/*
+    CsoundWorker.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A Csound engine running in a separate JVM process. Audio is exchanged
+ * through a ring of block slots in a memory-mapped file, so a crash or
+ * runaway allocation in a user orchestra only takes down the child process.
+ *
+ * The simplest use is lockstep: write input to {@link #getSpin()}, call
+ * {@link #performKsmps()}, then read {@link #getSpout()}. To let the child
+ * render ahead, pipeline blocks instead: write getSpin() and submit() up to
+ * getSlots() blocks, then for each one awaitOutput(), read getSpout() and
+ * releaseOutput() before submitting further input. In both cases getSpin()
+ * and getSpout() move to another slot every block and must be fetched again
+ * rather than kept.
+ *
+ * Channel values and score events are block-accurate: each one is stamped
+ * with the next block to be submitted and the child applies it right before
+ * rendering that block, however far ahead of the child the parent is.
+ * A worker is not thread-safe and should be driven from a single thread.
+ *
+ * @author Steven Yi
+ */
+public class CsoundWorker implements AutoCloseable {
+
+    /** Default capacity of each of the spin and spout buffers in bytes. */
+    public static final long DEFAULT_AUDIO_BYTES = 64 * 1024;
+
+    /** Default number of blocks the child may render ahead. */
+    public static final int DEFAULT_SLOTS = 4;
+
+    private static final long START_TIMEOUT_MILLIS = 30_000;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 2_000;
+
+    private final Process process;
+    private final WorkerChannel channel;
+    private final Path channelPath;
+    private final MemorySegment[] spins;
+    private final MemorySegment[] spouts;
+    private final int slots;
+    private final int ksmps;
+    private final int nchnls;
+    private final int nchnlsInput;
+    private Runnable onClose;
+    // blocks submitted to and released by this side of the ring
+    private long submitted = 0;
+    private long released = 0;
+    private boolean outputReady = false;
+    private boolean closed = false;
+
+    private CsoundWorker(Process process, WorkerChannel channel, Path channelPath) {
+        this.process = process;
+        this.channel = channel;
+        this.channelPath = channelPath;
+        this.slots = channel.slots();
+        this.ksmps = channel.ksmps();
+        this.nchnls = channel.nchnls();
+        this.nchnlsInput = channel.nchnlsInput();
+        long myflt = channel.myfltSize();
+        this.spins = new MemorySegment[slots];
+        this.spouts = new MemorySegment[slots];
+        for (int i = 0; i < slots; i++) {
+            spins[i] = channel.spin(i).asSlice(0, (long) ksmps * nchnlsInput * myflt);
+            spouts[i] = channel.spout(i).asSlice(0, (long) ksmps * nchnls * myflt);
+        }
+    }
+
+    /**
+     * Starts a worker running the given orchestra. Options are applied with
+     * setOption() in the child before compiling.
+     *
+     * @param orc     orchestra source
+     * @param options Csound options, e.g. -odac or --ksmps=32
+     * @return a started worker
+     * @throws IOException if the temporary files cannot be created
+     * @throws IllegalStateException if the child fails to compile or start
+     */
+    public static CsoundWorker startOrc(String orc, String... options) throws IOException {
+        return startOrc(orc, List.of(), List.of(), options);
+    }
+
+    /**
+     * Starts a worker running the given orchestra.
+     *
+     * @param orc           orchestra source
+     * @param jvmArgs       extra arguments for the child JVM, e.g. -Xmx64m
+     * @param commandPrefix command to prepend to the java launcher, e.g.
+     *                      prlimit or nice; may be empty
+     * @param options       Csound options applied with setOption()
+     * @return a started worker
+     * @throws IOException if the temporary files cannot be created
+     * @throws IllegalStateException if the child fails to compile or start
+     */
+    public static CsoundWorker startOrc(String orc, List<String> jvmArgs,
+            List<String> commandPrefix, String... options) throws IOException {
+        Path orcPath = Files.createTempFile("csoundffm-worker", ".orc");
+        try {
+            Files.writeString(orcPath, orc);
+            return launch("orc", orcPath, jvmArgs, commandPrefix, options);
+        } finally {
+            Files.deleteIfExists(orcPath);
+        }
+    }
+
+    /**
+     * Starts a worker running the given CSD file. Options are passed as
+     * command-line flags.
+     *
+     * @param csd     CSD file
+     * @param options command-line flags
+     * @return a started worker
+     * @throws IOException if the shared file cannot be created
+     * @throws IllegalStateException if the child fails to compile or start
+     */
+    public static CsoundWorker startCsd(Path csd, String... options) throws IOException {
+        return startCsd(csd, List.of(), List.of(), options);
+    }
+
+    /**
+     * Starts a worker running the given CSD file.
+     *
+     * @param csd           CSD file
+     * @param jvmArgs       extra arguments for the child JVM, e.g. -Xmx64m
+     * @param commandPrefix command to prepend to the java launcher, e.g.
+     *                      prlimit or nice; may be empty
+     * @param options       command-line flags
+     * @return a started worker
+     * @throws IOException if the shared file cannot be created
+     * @throws IllegalStateException if the child fails to compile or start
+     */
+    public static CsoundWorker startCsd(Path csd, List<String> jvmArgs,
+            List<String> commandPrefix, String... options) throws IOException {
+        return launch("csd", csd, jvmArgs, commandPrefix, options);
+    }
+
+    private static CsoundWorker launch(String sourceType, Path source,
+            List<String> jvmArgs, List<String> commandPrefix, String[] options)
+            throws IOException {
+        Path channelPath = Files.createTempFile("csoundffm-worker", ".shm");
+        WorkerChannel channel = WorkerChannel.create(channelPath, DEFAULT_SLOTS,
+                DEFAULT_AUDIO_BYTES);
+
+        List<String> cmd = new ArrayList<>(commandPrefix);
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.addAll(jvmArgs);
+        cmd.add("--enable-native-access=ALL-UNNAMED");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(CsoundWorkerMain.class.getName());
+        cmd.add(channelPath.toString());
+        cmd.add(sourceType);
+        cmd.add(source.toAbsolutePath().toString());
+        cmd.addAll(List.of(options));
+
+        Process process = null;
+        try {
+            process = new ProcessBuilder(cmd)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .redirectInput(new File(System.getProperty("os.name")
+                            .startsWith("Windows") ? "NUL" : "/dev/null"))
+                    .start();
+            awaitReady(process, channel);
+            return new CsoundWorker(process, channel, channelPath);
+        } catch (IOException | RuntimeException e) {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            channel.close();
+            Files.deleteIfExists(channelPath);
+            throw e;
+        }
+    }
+
+    private static void awaitReady(Process process, WorkerChannel channel) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_TIMEOUT_MILLIS);
+        while (true) {
+            int status = channel.status();
+            if (status == WorkerChannel.STATUS_READY) {
+                return;
+            }
+            if (status == WorkerChannel.STATUS_FAILED) {
+                throw new IllegalStateException("Csound worker failed to start");
+            }
+            if (!process.isAlive()) {
+                throw new IllegalStateException(
+                        "Csound worker process exited with code " + process.exitValue());
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Timed out waiting for Csound worker to start");
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+    }
+
+    void setOnClose(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    /**
+     * Returns the child engine's block size.
+     *
+     * @return ksmps of the child engine
+     */
+    public int getKsmps() {
+        return ksmps;
+    }
+
+    /**
+     * Returns the child engine's number of output channels.
+     *
+     * @return nchnls of the child engine
+     */
+    public int getNchnls() {
+        return nchnls;
+    }
+
+    /**
+     * Returns the child engine's number of input channels.
+     *
+     * @return nchnls_i of the child engine
+     */
+    public int getNchnlsInput() {
+        return nchnlsInput;
+    }
+
+    /**
+     * Returns the number of blocks that may be submitted before the oldest
+     * output has to be released.
+     *
+     * @return number of block slots in the ring
+     */
+    public int getSlots() {
+        return slots;
+    }
+
+    /**
+     * Returns the input buffer of the next block to submit, ksmps * nchnls_i
+     * MYFLT values.
+     *
+     * @return input buffer of the next block
+     * @throws IllegalStateException if every slot holds a block that has not
+     *                               been released
+     */
+    public MemorySegment getSpin() {
+        requireSlot();
+        return spins[(int) (submitted % slots)];
+    }
+
+    /**
+     * Returns the output buffer of the oldest unreleased block, ksmps *
+     * nchnls MYFLT values. Valid after awaitOutput() or performKsmps() until
+     * the block is released.
+     *
+     * @return output buffer of the oldest unreleased block
+     */
+    public MemorySegment getSpout() {
+        return spouts[(int) (released % slots)];
+    }
+
+    /**
+     * Returns whether the worker is open and its process is running.
+     *
+     * @return true if blocks can still be performed
+     */
+    public boolean isAlive() {
+        return !closed && process.isAlive();
+    }
+
+    /**
+     * Performs one block in the child and waits for it to finish, after
+     * waiting for and releasing any blocks still in flight.
+     *
+     * @return the child's performKsmps() result
+     * @throws IllegalStateException if the worker process has exited
+     */
+    public int performKsmps() {
+        requireOpen();
+        while (released < submitted) {
+            awaitOutput();
+            releaseOutput();
+        }
+        submit();
+        return awaitOutput();
+    }
+
+    /**
+     * Publishes the input written to getSpin() and lets the child render the
+     * block without waiting for it.
+     *
+     * @throws IllegalStateException if the worker is closed or every slot
+     *                               holds a block that has not been released
+     */
+    public void submit() {
+        requireOpen();
+        requireSlot();
+        channel.submit(++submitted);
+    }
+
+    /**
+     * Waits for the oldest unreleased block to be rendered.
+     *
+     * @return the child's performKsmps() result for that block
+     * @throws IllegalStateException if no block is in flight or the worker
+     *                               process has exited
+     */
+    public int awaitOutput() {
+        requireOpen();
+        if (released == submitted) {
+            throw new IllegalStateException("No block has been submitted");
+        }
+        if (!channel.awaitCompleted(released + 1, process::isAlive)) {
+            throw exited();
+        }
+        outputReady = true;
+        return channel.result(released);
+    }
+
+    /**
+     * Hands the slot of the oldest block back to the ring once its output has
+     * been read.
+     *
+     * @throws IllegalStateException if awaitOutput() has not returned for the
+     *                               block
+     */
+    public void releaseOutput() {
+        if (!outputReady) {
+            throw new IllegalStateException("Output has not been awaited");
+        }
+        outputReady = false;
+        released++;
+    }
+
+    /**
+     * Queues a control channel value to apply before the next block
+     * submitted, i.e. the block whose input getSpin() currently returns.
+     *
+     * @param name  channel name
+     * @param value channel value
+     * @throws IllegalStateException if the worker process has exited, or if
+     *                               the command queue is full and no block
+     *                               has been submitted since
+     */
+    public void setChannel(String name, double value) {
+        requireOpen();
+        if (!channel.offer(WorkerChannel.CMD_SET_CHANNEL, name, value, submitted,
+                process::isAlive)) {
+            throw exited();
+        }
+    }
+
+    /**
+     * Queues a score event string to send before the next block submitted,
+     * i.e. the block whose input getSpin() currently returns.
+     *
+     * @param message score statements
+     * @throws IllegalStateException if the worker process has exited, or if
+     *                               the command queue is full and no block
+     *                               has been submitted since
+     */
+    public void eventString(String message) {
+        requireOpen();
+        if (!channel.offer(WorkerChannel.CMD_EVENT, message, 0, submitted, process::isAlive)) {
+            throw exited();
+        }
+    }
+
+    private void requireOpen() {
+        if (closed) {
+            throw new IllegalStateException("Csound worker is closed");
+        }
+    }
+
+    private void requireSlot() {
+        if (submitted - released >= slots) {
+            throw new IllegalStateException("All block slots are in use; release output first");
+        }
+    }
+
+    private IllegalStateException exited() {
+        return new IllegalStateException("Csound worker process exited with code "
+                + (process.isAlive() ? "unknown" : process.exitValue()));
+    }
+
+    /**
+     * Asks the child to shut down, waiting briefly before killing it, and
+     * removes the shared file.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.requestShutdown();
+            if (!process.waitFor(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException ie) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+            try {
+                Files.deleteIfExists(channelPath);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (onClose != null) {
+                onClose.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+    CsoundWorkerMain.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Entry point of a child process started by {@link CsoundWorker}. Runs one
+ * Csound engine and renders every block the parent submits, in order,
+ * exchanging audio and commands through a {@link WorkerChannel}.
+ *
+ * <pre>
+ * CsoundWorkerMain &lt;channel file&gt; orc|csd &lt;source file&gt; [options...]
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class CsoundWorkerMain {
+
+    public static void main(String[] args) throws Exception {
+        Path channelPath = Path.of(args[0]);
+        String sourceType = args[1];
+        Path sourcePath = Path.of(args[2]);
+        String[] options = Arrays.copyOfRange(args, 3, args.length);
+
+        ProcessHandle parent = ProcessHandle.current().parent().orElse(null);
+
+        try (WorkerChannel channel = WorkerChannel.open(channelPath);
+                Csound csound = new Csound()) {
+
+            int retVal;
+            if (sourceType.equals("csd")) {
+                String[] compileArgs = new String[options.length + 2];
+                compileArgs[0] = "csound";
+                System.arraycopy(options, 0, compileArgs, 1, options.length);
+                compileArgs[compileArgs.length - 1] = sourcePath.toString();
+                retVal = csound.compile(compileArgs);
+            } else {
+                for (String option : options) {
+                    csound.setOption(option);
+                }
+                retVal = csound.compileOrc(Files.readString(sourcePath), 0);
+                if (retVal == 0) {
+                    retVal = csound.start();
+                }
+            }
+
+            EngineInfo info = retVal == 0 ? csound.getEngineInfo() : null;
+            if (info == null
+                    || info.spin().byteSize() > channel.audioBytes()
+                    || info.spout().byteSize() > channel.audioBytes()) {
+                channel.publishFailed();
+                System.exit(1);
+            }
+
+            channel.publishReady(info.ksmps(), info.nchnls(), info.nchnlsInput(),
+                    Csound.getSizeOfMYFLT());
+
+            long spinBytes = info.spin().byteSize();
+            long spoutBytes = info.spout().byteSize();
+            BooleanSupplier alive = () -> !channel.shutdownRequested()
+                    && (parent == null || parent.isAlive());
+
+            WorkerChannel.CommandHandler handler = (type, text, value) -> {
+                switch (type) {
+                    case WorkerChannel.CMD_SET_CHANNEL -> csound.setChannel(text, value);
+                    case WorkerChannel.CMD_EVENT -> csound.eventString(text, 0);
+                    default -> System.err.println("Unknown worker command: " + type);
+                }
+            };
+
+            long sequence = channel.completed();
+            while (channel.awaitSubmitted(sequence + 1, alive)
+                    && !channel.shutdownRequested()) {
+                channel.drain(sequence, handler);
+                MemorySegment.copy(channel.spin(sequence), 0, info.spin(), 0, spinBytes);
+                int result = csound.performKsmps();
+                MemorySegment.copy(info.spout(), 0, channel.spout(sequence), 0, spoutBytes);
+                channel.complete(sequence, result);
+                sequence++;
+            }
+        }
+    }
+}
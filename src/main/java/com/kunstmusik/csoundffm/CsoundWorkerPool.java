@@ -0,0 +1,150 @@
+/*
+    CsoundWorkerPool.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Launches {@link CsoundWorker} processes with shared resource limits. At
+ * most maxWorkers children run at once; acquiring a worker blocks until a
+ * slot is free. The jvmArgs (e.g. -Xmx) and commandPrefix (e.g. prlimit,
+ * nice, taskset) are applied to every child process.
+ *
+ * @author Steven Yi
+ */
+public class CsoundWorkerPool implements AutoCloseable {
+
+    private final Semaphore permits;
+    private final List<String> jvmArgs;
+    private final List<String> commandPrefix;
+    private final Set<CsoundWorker> workers = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a pool whose children run with the default JVM settings.
+     *
+     * @param maxWorkers maximum number of workers running at once
+     */
+    public CsoundWorkerPool(int maxWorkers) {
+        this(maxWorkers, List.of(), List.of());
+    }
+
+    /**
+     * Creates a pool applying the same limits to every child process.
+     *
+     * @param maxWorkers    maximum number of workers running at once
+     * @param jvmArgs       extra arguments for each child JVM, e.g. -Xmx64m
+     * @param commandPrefix command to prepend to each java launcher, e.g.
+     *                      prlimit, nice or taskset; may be empty
+     */
+    public CsoundWorkerPool(int maxWorkers, List<String> jvmArgs, List<String> commandPrefix) {
+        this.permits = new Semaphore(maxWorkers);
+        this.jvmArgs = List.copyOf(jvmArgs);
+        this.commandPrefix = List.copyOf(commandPrefix);
+    }
+
+    /**
+     * Starts a worker running the given orchestra, waiting for a free slot.
+     * The slot is returned when the worker is closed.
+     *
+     * @param orc     orchestra source
+     * @param options Csound options applied with setOption()
+     * @return a started worker
+     * @throws IOException if the temporary files cannot be created
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public CsoundWorker startOrc(String orc, String... options)
+            throws IOException, InterruptedException {
+        acquire();
+        try {
+            return track(CsoundWorker.startOrc(orc, jvmArgs, commandPrefix, options));
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a worker running the given CSD file, waiting for a free slot.
+     * The slot is returned when the worker is closed.
+     *
+     * @param csd     CSD file
+     * @param options command-line flags
+     * @return a started worker
+     * @throws IOException if the shared file cannot be created
+     * @throws InterruptedException if interrupted while waiting for a slot
+     */
+    public CsoundWorker startCsd(Path csd, String... options)
+            throws IOException, InterruptedException {
+        acquire();
+        try {
+            return track(CsoundWorker.startCsd(csd, jvmArgs, commandPrefix, options));
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of workers started by this pool and not yet closed.
+     *
+     * @return number of running workers
+     */
+    public int getActiveCount() {
+        return workers.size();
+    }
+
+    private void acquire() throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Csound worker pool is closed");
+        }
+        permits.acquire();
+    }
+
+    private CsoundWorker track(CsoundWorker worker) {
+        workers.add(worker);
+        worker.setOnClose(() -> {
+            if (workers.remove(worker)) {
+                permits.release();
+            }
+        });
+        if (closed) {
+            worker.close();
+        }
+        return worker;
+    }
+
+    /** Closes all running workers. */
+    @Override
+    public void close() {
+        closed = true;
+        for (CsoundWorker worker : workers) {
+            worker.close();
+        }
+    }
+}
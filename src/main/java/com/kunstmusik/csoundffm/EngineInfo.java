@@ -0,0 +1,45 @@
+/*
+    EngineInfo.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Immutable snapshot of a started Csound instance's engine constants. Taken
+ * once when the instance starts and discarded on reset(), so that hot paths
+ * can read these values without making native calls.
+ *
+ * @param sr          number of audio sample frames per second
+ * @param kr          number of control samples per second
+ * @param ksmps       number of audio sample frames per control sample
+ * @param nchnls      number of audio output channels
+ * @param nchnlsInput number of audio input channels
+ * @param zeroDBFS    0dBFS level of the spin/spout buffers
+ * @param spin        audio input working buffer, sized ksmps * nchnlsInput
+ * @param spout       audio output working buffer, sized ksmps * nchnls
+ *
+ * @author Steven Yi
+ */
+public record EngineInfo(double sr, double kr, int ksmps, int nchnls, int nchnlsInput,
+        double zeroDBFS, MemorySegment spin, MemorySegment spout) {
+}
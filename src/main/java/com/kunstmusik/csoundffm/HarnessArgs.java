@@ -0,0 +1,100 @@
+/*
+    HarnessArgs.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command-line options of the form --name=value shared by
+ * {@link CsoundBenchmark} and {@link LatencyHarness}. Lists are comma
+ * separated. An unknown option prints the usage line and exits.
+ *
+ * @author Steven Yi
+ */
+final class HarnessArgs {
+
+    private final Map<String, String> values;
+
+    private HarnessArgs(Map<String, String> values) {
+        this.values = values;
+    }
+
+    /**
+     * Parses args, accepting only the given option names.
+     *
+     * @param args  command-line arguments
+     * @param usage list of accepted options printed on error
+     * @param names accepted option names, e.g. --ksmps
+     * @return parsed options
+     */
+    static HarnessArgs parse(String[] args, String usage, String... names) {
+        Set<String> known = Set.of(names);
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (!known.contains(kv[0])) {
+                System.err.println("Unknown argument: " + arg);
+                System.err.println("Arguments: " + usage);
+                System.exit(1);
+            }
+            values.put(kv[0], kv.length > 1 ? kv[1] : "");
+        }
+        return new HarnessArgs(values);
+    }
+
+    String[] getStrings(String name, String... defaults) {
+        String value = values.get(name);
+        return value == null ? defaults : value.split(",");
+    }
+
+    int[] getInts(String name, int... defaults) {
+        String value = values.get(name);
+        return value == null ? defaults : parseInts(value);
+    }
+
+    int getInt(String name, int defaultValue) {
+        String value = values.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    double getDouble(String name, double defaultValue) {
+        String value = values.get(name);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    Path getPath(String name, String defaultValue) {
+        return Path.of(values.getOrDefault(name, defaultValue));
+    }
+
+    private static int[] parseInts(String value) {
+        String[] parts = value.split(",");
+        int[] ints = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ints[i] = Integer.parseInt(parts[i].trim());
+        }
+        return ints;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+    HookGate.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * Lets a {@link PerformHook} that owns native memory free it safely while
+ * its Csound instance may still be performing.
+ *
+ * removePerformHook() does not wait for a performKsmps() that already
+ * fetched the old hook array, so a hook can still be running after it has
+ * been removed. Hook methods bracket their work with enter() and exit(), and
+ * close() waits for the hook in progress, if any, to leave before the owner
+ * frees its memory. After close() every enter() fails. The two flags are
+ * volatile, so either close() sees the hook inside or the hook sees the gate
+ * closed.
+ *
+ * close() must not be called from within the gated hook itself.
+ *
+ * @author Steven Yi
+ */
+final class HookGate {
+
+    private volatile boolean inside = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Enters the gate on the performing thread.
+     *
+     * @return false if the gate is closed and the hook must return at once
+     */
+    boolean enter() {
+        inside = true;
+        if (closed) {
+            inside = false;
+            return false;
+        }
+        return true;
+    }
+
+    /** Leaves the gate after a successful enter(). */
+    void exit() {
+        inside = false;
+    }
+
+    /**
+     * Closes the gate and waits until no hook is inside.
+     *
+     * @return false if the gate was already closed
+     */
+    synchronized boolean close() {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        while (inside) {
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+}
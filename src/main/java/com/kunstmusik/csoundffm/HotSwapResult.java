@@ -0,0 +1,61 @@
+/*
+    HotSwapResult.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * Result of an orchestra hot-swap performed by {@link OrchestraHotSwap}.
+ *
+ * @param validated       true if the orchestra compiled without error on the
+ *                        shadow instance
+ * @param applied         true if the orchestra was handed to the live instance
+ * @param validateResult  return code of compileOrc() on the shadow instance
+ * @param applyResult     return code of compileOrc() on the live instance, or
+ *                        -1 if the orchestra was not applied
+ * @param validationNanos time spent compiling on the shadow instance
+ * @param applyNanos      time spent in the asynchronous compileOrc() call on
+ *                        the live instance, on the swap thread
+ * @param maxCycleNanos   longest control cycle of the live instance from the
+ *                        submit until the cycle merging the orchestra had
+ *                        finished, or -1 if it was not measured
+ * @param blockNanos      duration of one ksmps block of the live instance
+ * @param diagnostics     messages Csound printed while compiling on the shadow
+ *                        instance
+ *
+ * @author Steven Yi
+ */
+public record HotSwapResult(boolean validated, boolean applied,
+        int validateResult, int applyResult,
+        long validationNanos, long applyNanos, long maxCycleNanos, long blockNanos,
+        String diagnostics) {
+
+    /**
+     * Returns whether a control cycle of the live instance took longer than
+     * one block while the orchestra was being merged. A realtime performance
+     * would have missed a block deadline during that cycle.
+     *
+     * @return true if a measured cycle exceeded one block duration
+     */
+    public boolean addedStall() {
+        return applied && maxCycleNanos > blockNanos;
+    }
+}
@@ -0,0 +1,271 @@
+/*
+    LatencyHarness.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Input-to-output and event-to-sound latency measurements (useful for
+ * developers of CsoundFFM).
+ *
+ * Runs a Csound instance without audio devices and measures, over many
+ * trials:
+ *
+ * <ul>
+ * <li>loopback: an impulse written into spin at a random frame is detected
+ * in spout after passing through inch/out</li>
+ * <li>event: a score event sent with eventString() (sync and async) until
+ * the note is heard in spout</li>
+ * <li>channel: a control channel set with setChannel() until the change is
+ * heard in spout</li>
+ * </ul>
+ *
+ * Latency is reported in samples, blocks and wall-clock microseconds as a
+ * distribution for each ksmps value, buffer mode (default or --realtime)
+ * and thread configuration (-j). Results are printed as a table and appended
+ * as JSON lines to an output file. As no audio device is involved, the
+ * numbers cover Csound and the binding, and exclude device buffering.
+ *
+ * @author Steven Yi
+ */
+public class LatencyHarness {
+
+    private static final double THRESHOLD = 0.5;
+    private static final int MAX_BLOCKS = 10000;
+
+    private static final String ORC = """
+            0dbfs = 1
+            instr 1
+                a1 = inch(1)
+                kgate = chnget:k("gate")
+                out(a1 + a(kgate))
+            endin
+            instr 2
+                out(a(1))
+            endin
+            schedule(1, 0, -1)
+            """;
+
+    private record Trial(long samples, long blocks, long nanos) {
+    }
+
+    private record Config(int ksmps, String mode, int threads) {
+    }
+
+    private static void discard(int attr, String msg) {
+    }
+
+    private static void start(Csound csound, Config config) {
+        csound.setOption("-n");
+        csound.setOption("-d");
+        csound.setOption("-m0");
+        csound.setOption("--sample-rate=48000");
+        csound.setOption("--ksmps=" + config.ksmps());
+        csound.setOption("--nchnls=1");
+        csound.setOption("--nchnls_i=1");
+        csound.setOption("-j" + config.threads());
+        if (config.mode().equals("realtime")) {
+            csound.setOption("--realtime");
+        }
+        csound.compileOrc(ORC, 0);
+        csound.start();
+    }
+
+    // returns first frame in spout above threshold, or -1
+    private static int detect(MemorySegment spout, int frames) {
+        for (int i = 0; i < frames; i++) {
+            if (Math.abs(Csound.getMyflt(spout, i)) > THRESHOLD) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void settle(Csound csound, EngineInfo info) {
+        int quiet = 0;
+        for (int i = 0; i < MAX_BLOCKS && quiet < 4; i++) {
+            csound.performKsmps();
+            quiet = detect(info.spout(), info.ksmps()) < 0 ? quiet + 1 : 0;
+        }
+    }
+
+    private static Trial loopback(Csound csound, EngineInfo info, Random random) {
+        MemorySegment spin = info.spin();
+        int ksmps = info.ksmps();
+        int injectBlock = random.nextInt(4);
+        int injectFrame = random.nextInt(ksmps);
+        long start = 0;
+
+        for (int block = 0; block < MAX_BLOCKS; block++) {
+            spin.fill((byte) 0);
+            if (block == injectBlock) {
+                Csound.setMyflt(spin, injectFrame, 1.0);
+                start = System.nanoTime();
+            }
+            csound.performKsmps();
+            int frame = detect(info.spout(), ksmps);
+            if (frame >= 0 && block >= injectBlock) {
+                long nanos = System.nanoTime() - start;
+                spin.fill((byte) 0);
+                settle(csound, info);
+                return new Trial((long) (block - injectBlock) * ksmps + frame - injectFrame,
+                        block - injectBlock, nanos);
+            }
+        }
+        return null;
+    }
+
+    private static Trial event(Csound csound, EngineInfo info, int async) {
+        long start = System.nanoTime();
+        csound.eventString("i2 0 " + (1.0 / info.kr()), async);
+        return awaitSound(csound, info, start);
+    }
+
+    private static Trial channel(Csound csound, EngineInfo info) {
+        long start = System.nanoTime();
+        csound.setChannel("gate", 1.0);
+        Trial trial = awaitSound(csound, info, start);
+        csound.setChannel("gate", 0.0);
+        settle(csound, info);
+        return trial;
+    }
+
+    private static Trial awaitSound(Csound csound, EngineInfo info, long start) {
+        for (int block = 0; block < MAX_BLOCKS; block++) {
+            csound.performKsmps();
+            int frame = detect(info.spout(), info.ksmps());
+            if (frame >= 0) {
+                long nanos = System.nanoTime() - start;
+                settle(csound, info);
+                return new Trial((long) block * info.ksmps() + frame, block, nanos);
+            }
+        }
+        return null;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String distribution(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return String.format(Locale.ROOT, "{\"min\":%d,\"p50\":%d,\"p95\":%d,\"p99\":%d,\"max\":%d}",
+                percentile(sorted, 0), percentile(sorted, 0.5), percentile(sorted, 0.95),
+                percentile(sorted, 0.99), percentile(sorted, 1.0));
+    }
+
+    private static void report(PrintWriter out, Config config, String test, Trial[] trials) {
+        long[] samples = Arrays.stream(trials).mapToLong(Trial::samples).toArray();
+        long[] blocks = Arrays.stream(trials).mapToLong(Trial::blocks).toArray();
+        long[] micros = Arrays.stream(trials).mapToLong(t -> t.nanos() / 1000).toArray();
+
+        long[] sortedSamples = samples.clone();
+        long[] sortedMicros = micros.clone();
+        Arrays.sort(sortedSamples);
+        Arrays.sort(sortedMicros);
+
+        System.out.printf(Locale.ROOT, "%-12s %6d %-9s %7d %10d %10d %10d %10d%n",
+                test, config.ksmps(), config.mode(), config.threads(),
+                percentile(sortedSamples, 0.5), percentile(sortedSamples, 1.0),
+                percentile(sortedMicros, 0.5), percentile(sortedMicros, 0.99));
+
+        out.printf(Locale.ROOT,
+                "{\"timestamp\":\"%s\",\"csoundVersion\":%d,\"test\":\"%s\",\"ksmps\":%d,"
+                        + "\"mode\":\"%s\",\"threads\":%d,\"trials\":%d,"
+                        + "\"samples\":%s,\"blocks\":%s,\"wallMicros\":%s}%n",
+                Instant.now(), Csound.getVersion(), test, config.ksmps(), config.mode(),
+                config.threads(), trials.length, distribution(samples), distribution(blocks),
+                distribution(micros));
+        out.flush();
+    }
+
+    private static Trial[] runTrials(int count, Supplier<Trial> trial) {
+        return Stream.generate(trial).limit(count)
+                .filter(Objects::nonNull).toArray(Trial[]::new);
+    }
+
+    public static void main(String[] args) throws IOException {
+        HarnessArgs options = HarnessArgs.parse(args,
+                "--ksmps=n,m --modes=default,realtime --threads=n,m --trials=n --out=file",
+                "--ksmps", "--modes", "--threads", "--trials", "--out");
+        int[] ksmpsValues = options.getInts("--ksmps", 16, 64, 256);
+        String[] modes = options.getStrings("--modes", "default", "realtime");
+        int[] threadCounts = options.getInts("--threads", 1, 4);
+        int trials = options.getInt("--trials", 200);
+        Path output = options.getPath("--out", "latency_output.txt");
+
+        System.out.printf("Csound Version: %d%n", Csound.getVersion());
+        System.out.printf("%-12s %6s %-9s %7s %10s %10s %10s %10s%n", "test", "ksmps", "mode",
+                "threads", "p50(smp)", "max(smp)", "p50(us)", "p99(us)");
+
+        Random random = new Random(1);
+        int count = trials;
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            for (int ksmps : ksmpsValues) {
+                for (String mode : modes) {
+                    for (int threads : threadCounts) {
+                        Config config = new Config(ksmps, mode, threads);
+                        // messages are drained and discarded throughout so that
+                        // they do not pile up in native memory during the runs
+                        try (Csound csound = new Csound();
+                                MessageBufferDrainer messages = new MessageBufferDrainer(
+                                        csound, 0, 50, LatencyHarness::discard)) {
+                            messages.start();
+                            start(csound, config);
+                            EngineInfo info = csound.getEngineInfo();
+                            settle(csound, info);
+
+                            report(out, config, "loopback",
+                                    runTrials(count, () -> loopback(csound, info, random)));
+                            report(out, config, "event-sync",
+                                    runTrials(count, () -> event(csound, info, 0)));
+                            report(out, config, "event-async",
+                                    runTrials(count, () -> event(csound, info, 1)));
+                            report(out, config, "channel",
+                                    runTrials(count, () -> channel(csound, info)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
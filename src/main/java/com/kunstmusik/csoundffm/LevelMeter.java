@@ -0,0 +1,106 @@
+/*
+    LevelMeter.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+/**
+ * Per-channel peak and RMS meter. Levels are accumulated over a fixed window
+ * and published at the end of each window as linear amplitudes relative to
+ * 0dBFS.
+ *
+ * @author Steven Yi
+ */
+public class LevelMeter implements AudioMeter {
+
+    private final double windowSeconds;
+
+    private SeqLockBuffer snapshot;
+    private double[] peak;
+    private double[] sumSquares;
+    private double[] published;
+    private double scale;
+    private int channels;
+    private int windowFrames;
+    private int frameCount;
+
+    /**
+     * Creates a level meter.
+     *
+     * @param windowSeconds length of the measurement window in seconds
+     */
+    public LevelMeter(double windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    @Override
+    public void init(EngineInfo info) {
+        channels = info.nchnls();
+        scale = 1.0 / info.zeroDBFS();
+        windowFrames = Math.max(1, (int) Math.round(windowSeconds * info.sr()));
+        peak = new double[channels];
+        sumSquares = new double[channels];
+        published = new double[channels * 2];
+        snapshot = new SeqLockBuffer(channels * 2);
+        frameCount = 0;
+    }
+
+    @Override
+    public void process(MemorySegment block, int frames, int channels) {
+        for (int frame = 0; frame < frames; frame++) {
+            for (int ch = 0; ch < channels; ch++) {
+                double v = Csound.getMyflt(block, (long) frame * channels + ch) * scale;
+                double a = Math.abs(v);
+                if (a > peak[ch]) {
+                    peak[ch] = a;
+                }
+                sumSquares[ch] += v * v;
+            }
+        }
+
+        frameCount += frames;
+        if (frameCount >= windowFrames) {
+            for (int ch = 0; ch < channels; ch++) {
+                published[ch] = peak[ch];
+                published[channels + ch] = Math.sqrt(sumSquares[ch] / frameCount);
+            }
+            snapshot.publish(published);
+            Arrays.fill(peak, 0);
+            Arrays.fill(sumSquares, 0);
+            frameCount = 0;
+        }
+    }
+
+    /**
+     * Copies the most recent window's levels into dest, which must be at least
+     * 2 * nchnls long. Peak levels for each channel are stored first, followed
+     * by RMS levels for each channel. Does not allocate.
+     *
+     * @param dest destination array
+     * @return number of windows published so far
+     */
+    public long read(double[] dest) {
+        return snapshot.read(dest);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+    LoudnessMeter.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Loudness meter following the ITU-R BS.1770 measurement: each channel is
+ * K-weighted, mean square power is summed across channels, and the result
+ * is reported in LUFS. Momentary (400 ms) and short-term (3 s) loudness are
+ * published once per block over sliding windows. Channel weights are all
+ * 1.0 and no gating is applied.
+ *
+ * @author Steven Yi
+ */
+public class LoudnessMeter implements AudioMeter {
+
+    private static final double MOMENTARY_SECONDS = 0.4;
+    private static final double SHORT_TERM_SECONDS = 3.0;
+
+    private SeqLockBuffer snapshot;
+    private final double[] published = new double[2];
+
+    // K-weighting coefficients: shelf stage then high-pass stage
+    private double sb0, sb1, sb2, sa1, sa2;
+    private double hb0, hb1, hb2, ha1, ha2;
+    // per channel filter state: shelf x1, x2, y1, y2, high-pass y1, y2
+    private double[] state;
+    private double scale;
+
+    // ring of per-block power sums
+    private double[] blockPower;
+    private int blockIndex;
+    private int momentaryBlocks;
+    private double momentarySum;
+    private double shortTermSum;
+
+    @Override
+    public void init(EngineInfo info) {
+        double sr = info.sr();
+        scale = 1.0 / info.zeroDBFS();
+
+        double k = Math.tan(Math.PI * 1681.974450955533 / sr);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10.0, 3.999843853973347 / 20.0);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1.0 + k / q + k * k;
+        sb0 = (vh + vb * k / q + k * k) / a0;
+        sb1 = 2.0 * (k * k - vh) / a0;
+        sb2 = (vh - vb * k / q + k * k) / a0;
+        sa1 = 2.0 * (k * k - 1.0) / a0;
+        sa2 = (1.0 - k / q + k * k) / a0;
+
+        k = Math.tan(Math.PI * 38.13547087602444 / sr);
+        q = 0.5003270373238773;
+        a0 = 1.0 + k / q + k * k;
+        hb0 = 1.0;
+        hb1 = -2.0;
+        hb2 = 1.0;
+        ha1 = 2.0 * (k * k - 1.0) / a0;
+        ha2 = (1.0 - k / q + k * k) / a0;
+
+        double blockSeconds = info.ksmps() / sr;
+        momentaryBlocks = Math.max(1, (int) Math.round(MOMENTARY_SECONDS / blockSeconds));
+        blockPower = new double[Math.max(momentaryBlocks, (int) Math.round(SHORT_TERM_SECONDS / blockSeconds))];
+        blockIndex = 0;
+        momentarySum = 0;
+        shortTermSum = 0;
+
+        state = new double[info.nchnls() * 6];
+        snapshot = new SeqLockBuffer(2);
+    }
+
+    @Override
+    public void process(MemorySegment block, int frames, int channels) {
+        double power = 0;
+        for (int ch = 0; ch < channels; ch++) {
+            int s = ch * 6;
+            double x1 = state[s], x2 = state[s + 1], y1 = state[s + 2], y2 = state[s + 3];
+            double z1 = state[s + 4], z2 = state[s + 5];
+            // high-pass input history equals the shelf output history (y1, y2)
+            for (int frame = 0; frame < frames; frame++) {
+                double x = Csound.getMyflt(block, (long) frame * channels + ch) * scale;
+                double y = sb0 * x + sb1 * x1 + sb2 * x2 - sa1 * y1 - sa2 * y2;
+                double z = hb0 * y + hb1 * y1 + hb2 * y2 - ha1 * z1 - ha2 * z2;
+                x2 = x1;
+                x1 = x;
+                y2 = y1;
+                y1 = y;
+                z2 = z1;
+                z1 = z;
+                power += z * z;
+            }
+            state[s] = x1;
+            state[s + 1] = x2;
+            state[s + 2] = y1;
+            state[s + 3] = y2;
+            state[s + 4] = z1;
+            state[s + 5] = z2;
+        }
+        power /= frames;
+
+        int size = blockPower.length;
+        int momentaryOut = (blockIndex - momentaryBlocks + size) % size;
+        momentarySum += power - blockPower[momentaryOut];
+        shortTermSum += power - blockPower[blockIndex];
+        blockPower[blockIndex] = power;
+        blockIndex = (blockIndex + 1) % size;
+
+        published[0] = toLufs(momentarySum / momentaryBlocks);
+        published[1] = toLufs(shortTermSum / size);
+        snapshot.publish(published);
+    }
+
+    private static double toLufs(double meanSquare) {
+        return meanSquare > 0 ? -0.691 + 10.0 * Math.log10(meanSquare) : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Copies the latest loudness values into dest, which must be at least 2
+     * long: momentary loudness at index 0 and short-term loudness at index 1,
+     * both in LUFS. Does not allocate.
+     *
+     * @param dest destination array
+     * @return number of blocks measured so far
+     */
+    public long read(double[] dest) {
+        return snapshot.read(dest);
+    }
+}
@@ -0,0 +1,13 @@
+package com.kunstmusik.csoundffm;
+
+/** Message attribute types passed with Csound messages */
+public class MessageAttributes {
+  public static final int CSOUNDMSG_DEFAULT = 0x0000;
+  public static final int CSOUNDMSG_ERROR = 0x1000;
+  public static final int CSOUNDMSG_ORCH = 0x2000;
+  public static final int CSOUNDMSG_REALTIME = 0x3000;
+  public static final int CSOUNDMSG_WARNING = 0x4000;
+  public static final int CSOUNDMSG_STDOUT = 0x5000;
+
+  public static final int CSOUNDMSG_TYPE_MASK = 0x7000;
+};
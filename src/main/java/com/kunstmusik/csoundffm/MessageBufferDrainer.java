@@ -0,0 +1,150 @@
+/*
+    MessageBufferDrainer.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains Csound's native message buffer on a background thread.
+ *
+ * With setMessageCallback(), every message printed by Csound is an upcall
+ * into Java on the thread that printed it, typically the thread performing
+ * Csound. The drainer instead has Csound store messages in its native
+ * message buffer and pulls them in batches from a separate thread, so
+ * orchestras that print heavily (printk, printks) never run Java code on the
+ * performing thread. The message level is applied natively with
+ * setMessageLevel() so filtered messages are never buffered at all.
+ *
+ * <pre>
+ * var drainer = new MessageBufferDrainer(csound, 0, 50,
+ *         (attr, msg) -&gt; System.out.print(msg));
+ * drainer.start();
+ * ...
+ * drainer.close();
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class MessageBufferDrainer implements AutoCloseable {
+
+    private static final int MAX_BATCH = 1024;
+
+    private final Csound csound;
+    private final int messageLevel;
+    private final long pollMillis;
+    private final MessageListener listener;
+
+    private volatile boolean running = false;
+    private Thread drainThread = null;
+
+    /**
+     * Creates a drainer for the given Csound instance.
+     *
+     * @param csound       Csound instance to drain messages from
+     * @param messageLevel message level passed to setMessageLevel(), or -1 to
+     *                     leave the current level unchanged
+     * @param pollMillis   milliseconds to wait between drains when the buffer
+     *                     is empty
+     * @param listener     listener receiving drained messages
+     */
+    public MessageBufferDrainer(Csound csound, int messageLevel, long pollMillis,
+            MessageListener listener) {
+        this.csound = csound;
+        this.messageLevel = messageLevel;
+        this.pollMillis = pollMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Clears any message callback, creates the message buffer and starts the
+     * drain thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        csound.setMessageCallback(null);
+        if (messageLevel >= 0) {
+            csound.setMessageLevel(messageLevel);
+        }
+        csound.createMessageBuffer(0);
+
+        running = true;
+        drainThread = Thread.ofPlatform().name("csound-message-drainer").daemon().start(this::run);
+    }
+
+    private void run() {
+        while (running) {
+            if (drain() == 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(pollMillis);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers up to one batch of pending messages to the listener.
+     *
+     * @return number of messages delivered
+     */
+    private int drain() {
+        int count = Math.min(csound.getMessageCnt(), MAX_BATCH);
+        for (int i = 0; i < count; i++) {
+            int attr = csound.getFirstMessageAttr();
+            String msg = csound.getFirstMessage();
+            csound.popFirstMessage();
+            if (msg != null) {
+                try {
+                    listener.message(attr, msg);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stops the drain thread, delivers any remaining messages and destroys
+     * the message buffer.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        drainThread.interrupt();
+        try {
+            drainThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        while (drain() > 0)
+            ;
+        csound.destroyMessageBuffer();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+    MessageListener.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * Single Abstract Method interface for receiving messages drained from a
+ * Csound message buffer by {@link MessageBufferDrainer}. Unlike
+ * {@link MessageCallback}, listeners are called on the drainer's thread with
+ * already decoded text.
+ *
+ * <pre>
+ * MessageListener listener = (attr, msg) -&gt; System.out.print(msg);
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public interface MessageListener {
+
+    /**
+     * Called for each drained message.
+     *
+     * @param attr message attributes (see {@link MessageAttributes})
+     * @param msg  message text
+     */
+    public void message(int attr, String msg);
+}
@@ -0,0 +1,112 @@
+/*
+    NativeMemoryAccount.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Native memory counters for one Csound instance. Holds no reference to the
+ * Csound object so that it can outlive it in the registry and in JMX until
+ * the instance is released.
+ *
+ * @author Steven Yi
+ */
+final class NativeMemoryAccount implements CsoundMemoryMXBean {
+
+    private final long instanceId;
+    private final AtomicLong bindingBytes = new AtomicLong();
+    private final AtomicLong peakBindingBytes = new AtomicLong();
+    private final AtomicInteger upcallStubs = new AtomicInteger();
+
+    private volatile long engineBytes = 0;
+    // Csound-owned channel memory, keyed by channel name so that repeated
+    // pointer lookups are counted once
+    private final ConcurrentHashMap<String, Long> channelBytes = new ConcurrentHashMap<>();
+
+    NativeMemoryAccount(long instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    void allocated(long bytes) {
+        long current = bindingBytes.addAndGet(bytes);
+        peakBindingBytes.accumulateAndGet(current, Math::max);
+    }
+
+    void released(long bytes) {
+        bindingBytes.addAndGet(-bytes);
+    }
+
+    void upcallStubCreated() {
+        upcallStubs.incrementAndGet();
+    }
+
+    void engineStarted(long bytes) {
+        engineBytes = bytes;
+    }
+
+    void channelMapped(String name, long bytes) {
+        channelBytes.putIfAbsent(name, bytes);
+    }
+
+    /** Forgets Csound-owned memory after reset() or close(). */
+    void engineReleased() {
+        engineBytes = 0;
+        channelBytes.clear();
+    }
+
+    NativeMemoryStats snapshot() {
+        return new NativeMemoryStats(instanceId, getBindingBytes(), getPeakBindingBytes(),
+                getUpcallStubs(), getCsoundBytes());
+    }
+
+    @Override
+    public long getInstanceId() {
+        return instanceId;
+    }
+
+    @Override
+    public long getBindingBytes() {
+        return bindingBytes.get();
+    }
+
+    @Override
+    public long getPeakBindingBytes() {
+        return peakBindingBytes.get();
+    }
+
+    @Override
+    public int getUpcallStubs() {
+        return upcallStubs.get();
+    }
+
+    @Override
+    public long getCsoundBytes() {
+        long total = engineBytes;
+        for (long bytes : channelBytes.values()) {
+            total += bytes;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+    NativeMemoryMetrics.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of native memory accounting for all live Csound instances.
+ *
+ * Every Csound instance registers an account when it is created and removes
+ * it when it is closed or released by the Cleaner. snapshot() returns the
+ * current figures; registerMBeans() additionally publishes them through the
+ * platform MBean server, one {@link CsoundMemoryMXBean} per instance plus a
+ * {@link BindingMemoryMXBean} with totals.
+ *
+ * Instances released by the Cleaner without close() are counted as leaked
+ * and reported as a warning through System.Logger, and to the listener set
+ * with setLeakListener(), if any. Callbacks set on an instance do not keep it
+ * reachable, so an instance whose callbacks capture it is still released.
+ *
+ * @author Steven Yi
+ */
+public final class NativeMemoryMetrics {
+
+    private static final System.Logger LOGGER = System.getLogger(NativeMemoryMetrics.class.getName());
+
+    private static final String DOMAIN = "com.kunstmusik.csoundffm";
+
+    private static final ConcurrentHashMap<Long, NativeMemoryAccount> accounts = new ConcurrentHashMap<>();
+    private static final AtomicLong nextId = new AtomicLong(1);
+    private static final AtomicLong leaked = new AtomicLong();
+    private static volatile boolean mbeansRegistered = false;
+    private static volatile Consumer<NativeMemoryStats> leakListener = null;
+
+    private NativeMemoryMetrics() {
+    }
+
+    /**
+     * Returns the memory figures of every live Csound instance.
+     *
+     * @return one snapshot per live instance, ordered by instance id
+     */
+    public static List<NativeMemoryStats> snapshot() {
+        List<NativeMemoryStats> stats = new ArrayList<>();
+        for (NativeMemoryAccount account : accounts.values()) {
+            stats.add(account.snapshot());
+        }
+        stats.sort((a, b) -> Long.compare(a.instanceId(), b.instanceId()));
+        return stats;
+    }
+
+    /**
+     * Returns the number of instances released by the Cleaner without
+     * having been closed.
+     *
+     * @return leaked instance count since the JVM started
+     */
+    public static long getLeakedInstances() {
+        return leaked.get();
+    }
+
+    /**
+     * Sets a listener notified whenever the Cleaner releases an instance that
+     * was not closed, in addition to the logged warning. The listener runs on
+     * the Cleaner thread and receives the instance's figures at the time of
+     * release.
+     *
+     * @param listener listener to notify, or null to remove it
+     */
+    public static void setLeakListener(Consumer<NativeMemoryStats> listener) {
+        leakListener = listener;
+    }
+
+    /**
+     * Registers the totals MBean and one MBean per live instance with the
+     * platform MBean server. Instances created afterwards register themselves
+     * until unregisterMBeans() is called.
+     */
+    public static synchronized void registerMBeans() {
+        if (mbeansRegistered) {
+            return;
+        }
+        mbeansRegistered = true;
+        register(new BindingMemory(), totalsName());
+        for (NativeMemoryAccount account : accounts.values()) {
+            register(account, instanceName(account.getInstanceId()));
+        }
+    }
+
+    /**
+     * Removes all MBeans registered by registerMBeans().
+     */
+    public static synchronized void unregisterMBeans() {
+        if (!mbeansRegistered) {
+            return;
+        }
+        mbeansRegistered = false;
+        unregister(totalsName());
+        for (NativeMemoryAccount account : accounts.values()) {
+            unregister(instanceName(account.getInstanceId()));
+        }
+    }
+
+    static NativeMemoryAccount open() {
+        NativeMemoryAccount account = new NativeMemoryAccount(nextId.getAndIncrement());
+        accounts.put(account.getInstanceId(), account);
+        if (mbeansRegistered) {
+            synchronized (NativeMemoryMetrics.class) {
+                if (mbeansRegistered) {
+                    register(account, instanceName(account.getInstanceId()));
+                }
+            }
+        }
+        return account;
+    }
+
+    static void release(NativeMemoryAccount account, boolean closed) {
+        accounts.remove(account.getInstanceId());
+        if (!closed) {
+            leaked.incrementAndGet();
+            LOGGER.log(System.Logger.Level.WARNING,
+                    "Csound instance {0} was not closed and has been released by the Cleaner",
+                    String.valueOf(account.getInstanceId()));
+            Consumer<NativeMemoryStats> listener = leakListener;
+            if (listener != null) {
+                try {
+                    listener.accept(account.snapshot());
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+        }
+        if (mbeansRegistered) {
+            synchronized (NativeMemoryMetrics.class) {
+                if (mbeansRegistered) {
+                    unregister(instanceName(account.getInstanceId()));
+                }
+            }
+        }
+    }
+
+    private static ObjectName totalsName() {
+        try {
+            return new ObjectName(DOMAIN + ":type=BindingMemory");
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ObjectName instanceName(long id) {
+        try {
+            return new ObjectName(DOMAIN + ":type=CsoundMemory,id=" + id);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void register(Object mbean, ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (!server.isRegistered(name)) {
+                server.registerMBean(mbean, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void unregister(ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static final class BindingMemory implements BindingMemoryMXBean {
+
+        @Override
+        public int getLiveInstances() {
+            return accounts.size();
+        }
+
+        @Override
+        public long getBindingBytes() {
+            long total = 0;
+            for (NativeMemoryAccount account : accounts.values()) {
+                total += account.getBindingBytes();
+            }
+            return total;
+        }
+
+        @Override
+        public int getUpcallStubs() {
+            int total = 0;
+            for (NativeMemoryAccount account : accounts.values()) {
+                total += account.getUpcallStubs();
+            }
+            return total;
+        }
+
+        @Override
+        public long getCsoundBytes() {
+            long total = 0;
+            for (NativeMemoryAccount account : accounts.values()) {
+                total += account.getCsoundBytes();
+            }
+            return total;
+        }
+
+        @Override
+        public long getLeakedInstances() {
+            return leaked.get();
+        }
+    }
+}
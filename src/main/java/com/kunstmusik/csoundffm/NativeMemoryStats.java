@@ -0,0 +1,44 @@
+/*
+    NativeMemoryStats.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * Snapshot of the native memory attributed to one Csound instance.
+ *
+ * @param instanceId       id of the instance, unique within the JVM
+ * @param bindingBytes     bytes currently allocated by the binding and its
+ *                         components (taps, publishers, bus matrices,
+ *                         processor chains) for this instance
+ * @param peakBindingBytes largest value bindingBytes has reached
+ * @param upcallStubs      number of live upcall stubs (message and channel
+ *                         callbacks); stubs stay alive until close()
+ * @param csoundBytes      bytes of Csound-owned memory known to the binding:
+ *                         spin/spout and channels mapped through
+ *                         getControlChannelPtr() or getAudioChannelPtr().
+ *                         Csound does not report its total heap usage.
+ *
+ * @author Steven Yi
+ */
+public record NativeMemoryStats(long instanceId, long bindingBytes, long peakBindingBytes,
+        int upcallStubs, long csoundBytes) {
+}
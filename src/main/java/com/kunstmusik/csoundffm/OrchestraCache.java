@@ -0,0 +1,258 @@
+/*
+    OrchestraCache.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of parsed orchestras, kept per Csound instance.
+ *
+ * An orchestra is parsed with parseOrc() on the instance it is compiled
+ * into, and the tree is kept under the SHA-256 hash of its text. Compiling
+ * the same orchestra into that instance again with compileTree() then skips
+ * the parse. Each instance keeps at most maxEntries trees; when the bound is
+ * exceeded the least recently used tree is freed with deleteTree().
+ *
+ * Trees are not shared between instances. Csound's semantic pass records
+ * pointers into the parsing instance's memory, such as its opcode entries
+ * and variable pools, and the instruments compiled from a tree keep using
+ * them. A tree parsed on one instance must therefore only be compiled into
+ * that instance. This also means globals and UDOs defined earlier in the
+ * instance are visible to the parse. Once an instance has compiled a tree,
+ * its instruments no longer refer to the tree itself, so freeing a tree on
+ * eviction is safe; csoundCompileOrc() also deletes its tree right after
+ * compiling it.
+ *
+ * reset() frees every tree Csound allocated, so trees parsed before a reset
+ * are dropped without deleteTree(). Trees of an instance that is closed or
+ * collected are freed with it.
+ *
+ * Compiles into the same instance are serialized, since a Csound instance
+ * is not thread-safe; compiles into different instances run in parallel.
+ * Only synchronous compiles are supported: an asynchronous compile queues
+ * the tree for the performing thread, after which the cache could free it
+ * while it is still in use.
+ *
+ * <pre>
+ * try (var cache = new OrchestraCache(16)) {
+ *     cache.compile(csound, instrumentDefinitions);
+ *     ...
+ *     // recompiled without parsing
+ *     cache.compile(csound, instrumentDefinitions);
+ * }
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class OrchestraCache implements AutoCloseable {
+
+    private final int maxEntries;
+    // guarded by the cache's monitor
+    private final WeakHashMap<Csound, Trees> instances = new WeakHashMap<>();
+    private volatile boolean closed = false;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Trees parsed on one instance, guarded by their own monitor. */
+    private static final class Trees {
+        final LinkedHashMap<String, MemorySegment> trees = new LinkedHashMap<>(16, 0.75f, true);
+        int resetCount;
+
+        Trees(int resetCount) {
+            this.resetCount = resetCount;
+        }
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxEntries maximum number of parsed orchestras to keep per
+     *                   instance
+     */
+    public OrchestraCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Compiles the orchestra into the target instance, parsing it first only
+     * if it has not been parsed on that instance since its last reset.
+     *
+     * @param target  Csound instance to compile into
+     * @param orcCode Csound orchestra code
+     * @param async   must be 0; asynchronous compiles are not supported
+     * @return Returns a non-zero error code on failure.
+     * @throws IllegalArgumentException if async is not 0
+     * @throws IllegalStateException if the cache or the target is closed
+     */
+    public int compile(Csound target, String orcCode, int async) {
+        if (async != 0) {
+            throw new IllegalArgumentException(
+                    "OrchestraCache only supports synchronous compiles");
+        }
+        String key = hash(orcCode);
+        Trees trees = treesFor(target);
+        synchronized (trees) {
+            if (closed) {
+                throw new IllegalStateException("OrchestraCache is closed");
+            }
+            if (trees.resetCount != target.getResetCount()) {
+                // freed by reset()
+                trees.trees.clear();
+                trees.resetCount = target.getResetCount();
+            }
+            MemorySegment tree = trees.trees.get(key);
+            if (tree == null) {
+                misses.incrementAndGet();
+                tree = target.parseOrc(orcCode);
+                if (tree == null) {
+                    return -1;
+                }
+                trees.trees.put(key, tree);
+                evictOverflow(target, trees);
+            } else {
+                hits.incrementAndGet();
+            }
+            return target.compileTree(tree, 0);
+        }
+    }
+
+    /**
+     * Compiles the orchestra synchronously into the target instance.
+     *
+     * @param target  Csound instance to compile into
+     * @param orcCode Csound orchestra code
+     * @return Returns a non-zero error code on failure.
+     */
+    public int compile(Csound target, String orcCode) {
+        return compile(target, orcCode, 0);
+    }
+
+    private synchronized Trees treesFor(Csound target) {
+        if (closed) {
+            throw new IllegalStateException("OrchestraCache is closed");
+        }
+        return instances.computeIfAbsent(target, cs -> new Trees(cs.getResetCount()));
+    }
+
+    // called with the Trees monitor held
+    private void evictOverflow(Csound target, Trees trees) {
+        Iterator<MemorySegment> it = trees.trees.values().iterator();
+        while (trees.trees.size() > maxEntries && it.hasNext()) {
+            MemorySegment eldest = it.next();
+            it.remove();
+            target.deleteTree(eldest);
+        }
+    }
+
+    private static String hash(String orcCode) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(orcCode.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the number of orchestras currently cached over all instances.
+     *
+     * @return number of cached orchestras
+     */
+    public int size() {
+        int size = 0;
+        for (Trees trees : snapshot().values()) {
+            synchronized (trees) {
+                size += trees.trees.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of compile() calls that found their orchestra cached.
+     *
+     * @return cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of compile() calls that had to parse their orchestra.
+     *
+     * @return cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private synchronized Map<Csound, Trees> snapshot() {
+        return new LinkedHashMap<>(instances);
+    }
+
+    /**
+     * Frees the trees cached for every instance that is still open and
+     * empties the cache. Instruments already compiled into those instances
+     * are not affected.
+     */
+    @Override
+    public void close() {
+        List<Map.Entry<Csound, Trees>> remaining;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            remaining = new ArrayList<>(instances.entrySet());
+            instances.clear();
+        }
+        for (Map.Entry<Csound, Trees> entry : remaining) {
+            Csound target = entry.getKey();
+            Trees trees = entry.getValue();
+            synchronized (trees) {
+                if (target.getState() != CsoundState.CLOSED
+                        && trees.resetCount == target.getResetCount()) {
+                    for (MemorySegment tree : trees.trees.values()) {
+                        target.deleteTree(tree);
+                    }
+                }
+                trees.trees.clear();
+            }
+        }
+    }
+}
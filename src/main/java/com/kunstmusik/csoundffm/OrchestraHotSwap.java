@@ -0,0 +1,247 @@
+/*
+    OrchestraHotSwap.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Validates orchestra code on a background shadow Csound instance before
+ * applying it to a live instance.
+ *
+ * The shadow instance is configured with the live instance's sample rate,
+ * ksmps, channel counts and 0dBFS, started with no audio output, and receives
+ * every orchestra that successfully passes through this object. Code that
+ * depends on earlier instruments, UDOs or globals therefore validates the
+ * same way it will compile on the live instance. Only orchestras that compile
+ * cleanly on the shadow are passed to the live instance, and those are
+ * applied with compileOrc(code, 1) so that parsing happens on the swap thread
+ * and not on the thread calling performKsmps().
+ *
+ * The new instruments are merged into the live instance at the start of a
+ * control cycle, on the performing thread. To measure what that costs, a
+ * perform hook times every live control cycle from the moment the orchestra
+ * is submitted until the first cycle that started after the submit has
+ * finished; the longest of these is reported in the result. If the live
+ * instance is not started, or does not complete that cycle within one
+ * second, the swap completes without a measurement.
+ *
+ * <pre>
+ * try (var hotSwap = new OrchestraHotSwap(csound)) {
+ *     HotSwapResult result = hotSwap.swap(orc).join();
+ *     if (!result.applied()) {
+ *         System.err.print(result.diagnostics());
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class OrchestraHotSwap implements AutoCloseable {
+
+    private final Csound live;
+    private final String[] shadowOptions;
+    private final long blockNanos;
+    private static final long MERGE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ExecutorService executor;
+    private final StringBuilder diagnostics = new StringBuilder();
+    private final CycleTimer cycleTimer = new CycleTimer();
+    private boolean closed = false;
+
+    // only accessed from executor thread
+    private Csound shadow = null;
+
+    /**
+     * Creates a hot-swapper for the given live instance. The shadow instance
+     * mirrors the live instance's engine settings.
+     *
+     * @param live Csound instance that orchestras are applied to
+     */
+    public OrchestraHotSwap(Csound live) {
+        this(live, mirrorOptions(live));
+    }
+
+    /**
+     * Creates a hot-swapper for the given live instance using explicit options
+     * for the shadow instance.
+     *
+     * @param live          Csound instance that orchestras are applied to
+     * @param shadowOptions options passed to setOption() on the shadow instance
+     */
+    public OrchestraHotSwap(Csound live, String... shadowOptions) {
+        this.live = live;
+        this.shadowOptions = shadowOptions.clone();
+        this.blockNanos = (long) (live.getKsmps() * 1_000_000_000.0 / live.getSr());
+        this.executor = Executors.newSingleThreadExecutor(
+                Thread.ofPlatform().name("csound-hotswap").daemon().factory());
+        live.addPerformHook(cycleTimer);
+    }
+
+    /**
+     * Times the live instance's control cycles on the performing thread.
+     */
+    private static final class CycleTimer implements PerformHook {
+
+        // only accessed from performing thread
+        private long cycleStart;
+
+        private final AtomicLong maxCycleNanos = new AtomicLong();
+        private volatile long cycles = 0;
+
+        @Override
+        public void beforePerformKsmps(Csound csound) {
+            cycleStart = System.nanoTime();
+        }
+
+        @Override
+        public void afterPerformKsmps(Csound csound) {
+            long nanos = System.nanoTime() - cycleStart;
+            maxCycleNanos.accumulateAndGet(nanos, Math::max);
+            cycles = cycles + 1;
+        }
+    }
+
+    private static String[] mirrorOptions(Csound live) {
+        List<String> options = new ArrayList<>();
+        options.add("-n");
+        options.add("-d");
+        options.add("--sample-rate=" + live.getSr());
+        options.add("--ksmps=" + live.getKsmps());
+        options.add("--nchnls=" + live.getChannels(0));
+        options.add("--nchnls_i=" + live.getChannels(1));
+        options.add("--0dbfs=" + live.get0dBFS());
+        return options.toArray(String[]::new);
+    }
+
+    /**
+     * Compiles the orchestra on the shadow instance and, if it compiles
+     * without error, applies it asynchronously to the live instance.
+     *
+     * @param orcCode Csound orchestra code
+     * @return future completed with the result of the swap
+     */
+    public CompletableFuture<HotSwapResult> swap(String orcCode) {
+        return CompletableFuture.supplyAsync(() -> doSwap(orcCode, true), executor);
+    }
+
+    /**
+     * Compiles the orchestra on the shadow instance only. Useful to check code
+     * ahead of time without changing the live instance. Code that validates
+     * is kept on the shadow instance, so it should later be passed to swap()
+     * to keep both instances in step.
+     *
+     * @param orcCode Csound orchestra code
+     * @return future completed with the result of the validation
+     */
+    public CompletableFuture<HotSwapResult> validate(String orcCode) {
+        return CompletableFuture.supplyAsync(() -> doSwap(orcCode, false), executor);
+    }
+
+    private HotSwapResult doSwap(String orcCode, boolean apply) {
+        Csound cs = getShadow();
+
+        diagnostics.setLength(0);
+        long start = System.nanoTime();
+        int validateResult = cs.compileOrc(orcCode, 0);
+        long validationNanos = System.nanoTime() - start;
+        String messages = diagnostics.toString();
+
+        if (validateResult != 0 || !apply) {
+            return new HotSwapResult(validateResult == 0, false, validateResult, -1,
+                    validationNanos, 0, -1, blockNanos, messages);
+        }
+
+        cycleTimer.maxCycleNanos.set(0);
+        start = System.nanoTime();
+        int applyResult = live.compileOrc(orcCode, 1);
+        long applyNanos = System.nanoTime() - start;
+        long maxCycleNanos = applyResult == 0 ? awaitMerge() : -1;
+
+        return new HotSwapResult(true, applyResult == 0, validateResult, applyResult,
+                validationNanos, applyNanos, maxCycleNanos, blockNanos, messages);
+    }
+
+    /**
+     * Waits until the live instance has finished the cycle in progress when
+     * the orchestra was submitted and the following cycle, which merges it.
+     *
+     * @return longest cycle since the submit, or -1 if not measured
+     */
+    private long awaitMerge() {
+        if (live.getState() != CsoundState.STARTED) {
+            return -1;
+        }
+        long target = cycleTimer.cycles + 2;
+        long deadline = System.nanoTime() + MERGE_TIMEOUT_NANOS;
+        while (cycleTimer.cycles < target) {
+            if (System.nanoTime() > deadline) {
+                return -1;
+            }
+            LockSupport.parkNanos(Math.max(blockNanos / 4, 10_000));
+        }
+        return cycleTimer.maxCycleNanos.get();
+    }
+
+    private Csound getShadow() {
+        if (shadow == null) {
+            shadow = new Csound();
+            shadow.setMessageCallback((cs, attr, msg) -> {
+                diagnostics.append(msg.reinterpret(Integer.MAX_VALUE).getString(0));
+            });
+            for (String option : shadowOptions) {
+                shadow.setOption(option);
+            }
+            shadow.start();
+        }
+        return shadow;
+    }
+
+    /**
+     * Destroys the shadow instance, stops the background thread and removes
+     * the cycle timer from the live instance. Calling close() more than once
+     * has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        live.removePerformHook(cycleTimer);
+        executor.submit(() -> {
+            if (shadow != null) {
+                shadow.setMessageCallback(null);
+                shadow.close();
+                shadow = null;
+            }
+        });
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+    ParameterBus.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bus for control channel values written from many threads.
+ *
+ * Each parameter is a control channel registered up front and addressed by
+ * its integer id (its index in the constructor arguments). Producers call
+ * set(), which stores the value in a Java-side atomic slot and marks it
+ * dirty without blocking. When added to a Csound instance as a
+ * {@link PerformHook}, the bus writes only the parameters that changed since
+ * the last cycle straight into their channel pointers before each
+ * performKsmps(). Writing happens on the performing thread and does not
+ * allocate or take locks inside Csound.
+ *
+ * <pre>
+ * var bus = new ParameterBus("cutoff", "resonance");
+ * int cutoff = bus.indexOf("cutoff");
+ * csound.addPerformHook(bus);
+ *
+ * // from any thread
+ * bus.set(cutoff, 1200.0);
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class ParameterBus implements PerformHook {
+
+    private final String[] names;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final AtomicLongArray values;
+    private final AtomicLongArray dirty;
+
+    // only accessed from performing thread
+    private final MemorySegment[] channelPtrs;
+    private final long[] written;
+    private EngineInfo boundEngine = null;
+
+    /**
+     * Creates a bus for the given control channels. Channel pointers are
+     * looked up on the first control cycle after the bus is added to a started
+     * Csound instance, and again on the first cycle after the instance is
+     * reset and restarted, when the last values are written again.
+     *
+     * @param channelNames names of control channels, in id order
+     */
+    public ParameterBus(String... channelNames) {
+        this.names = channelNames.clone();
+        this.values = new AtomicLongArray(names.length);
+        this.dirty = new AtomicLongArray((names.length + 63) >>> 6);
+        this.channelPtrs = new MemorySegment[names.length];
+        this.written = new long[dirty.length()];
+
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+    }
+
+    /**
+     * Returns the id for a channel name.
+     *
+     * @param channelName Name of control channel
+     * @return id of the channel, or -1 if not registered
+     */
+    public int indexOf(String channelName) {
+        return ids.getOrDefault(channelName, -1);
+    }
+
+    /**
+     * Returns the number of parameters on this bus.
+     *
+     * @return number of parameters
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Sets a parameter value. Safe to call from any thread; never blocks. The
+     * value is written into Csound before the next control cycle.
+     *
+     * @param id    parameter id
+     * @param value value to set
+     */
+    public void set(int id, double value) {
+        values.set(id, Double.doubleToRawLongBits(value));
+
+        int word = id >>> 6;
+        long mask = 1L << id;
+        long prev;
+        do {
+            prev = dirty.get(word);
+            if ((prev & mask) != 0) {
+                return;
+            }
+        } while (!dirty.compareAndSet(word, prev, prev | mask));
+    }
+
+    /**
+     * Returns the last value set for a parameter.
+     *
+     * @param id parameter id
+     * @return last value set
+     */
+    public double get(int id) {
+        return Double.longBitsToDouble(values.get(id));
+    }
+
+    @Override
+    public void beforePerformKsmps(Csound csound) {
+        flush(csound);
+    }
+
+    /**
+     * Writes all changed parameter values into their channel pointers. Called
+     * automatically when the bus is added as a PerformHook; call manually only
+     * when driving the bus from a custom perform loop.
+     *
+     * @param csound Csound instance to write channels of
+     */
+    public void flush(Csound csound) {
+        EngineInfo info = csound.getEngineInfo();
+        if (info != boundEngine) {
+            bind(csound, info);
+        }
+        for (int word = 0; word < dirty.length(); word++) {
+            if (dirty.get(word) == 0) {
+                continue;
+            }
+            long bits = dirty.getAndSet(word, 0);
+            written[word] |= bits;
+            while (bits != 0) {
+                int id = (word << 6) + Long.numberOfTrailingZeros(bits);
+                MemorySegment ptr = channelPtrs[id];
+                if (ptr != null) {
+                    Csound.setMyflt(ptr, 0, Double.longBitsToDouble(values.get(id)));
+                }
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    /**
+     * Looks up channel pointers for a newly started engine. After a restart,
+     * every parameter written to the previous engine is marked dirty so that
+     * the new engine's channels receive the last values.
+     */
+    private void bind(Csound csound, EngineInfo info) {
+        for (int i = 0; i < names.length; i++) {
+            channelPtrs[i] = csound.getControlChannelPtr(names[i]);
+        }
+        if (boundEngine != null) {
+            for (int word = 0; word < written.length; word++) {
+                long bits = written[word];
+                if (bits != 0) {
+                    long prev;
+                    do {
+                        prev = dirty.get(word);
+                    } while (!dirty.compareAndSet(word, prev, prev | bits));
+                }
+            }
+        }
+        boundEngine = info;
+    }
+}
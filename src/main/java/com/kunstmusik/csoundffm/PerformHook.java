@@ -0,0 +1,61 @@
+/*
+    PerformHook.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * Hook called by {@link Csound#performKsmps()} around each control cycle.
+ * Hooks run on the thread that calls performKsmps() and should not block or
+ * allocate. A hook that throws is reported and removed from its instance;
+ * the performance continues without it.
+ *
+ * <pre>
+ * csound.addPerformHook(new PerformHook() {
+ *     public void afterPerformKsmps(Csound cs) {
+ *         MemorySegment spout = cs.getSpout();
+ *         // read output...
+ *     }
+ * });
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public interface PerformHook {
+
+    /**
+     * Called before Csound performs a control cycle. Use to write input such
+     * as channel values or spin data.
+     *
+     * @param csound Csound instance being performed
+     */
+    public default void beforePerformKsmps(Csound csound) {
+    }
+
+    /**
+     * Called after Csound has performed a control cycle. Not called once
+     * performance has finished. Use to read output such as spout data.
+     *
+     * @param csound Csound instance being performed
+     */
+    public default void afterPerformKsmps(Csound csound) {
+    }
+}
@@ -0,0 +1,198 @@
+/*
+    ProcessorChain.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chain of {@link BlockProcessor}s run in place on Csound's spin and spout
+ * buffers right after each performKsmps().
+ *
+ * Stages see the spout buffer as Csound left it (or as earlier stages
+ * modified it) without any copy to heap arrays, and may use a shared
+ * off-heap scratch buffer. Time spent in each stage is recorded and can be
+ * read from any thread with getTimings(). After the Csound instance is
+ * reset and restarted, the chain switches to the new engine's buffers and
+ * calls init() again on every processor before the first block.
+ *
+ * <pre>
+ * var chain = new ProcessorChain(csound);
+ * chain.add("limiter", limiter);
+ * chain.add("dither", dither);
+ * csound.addPerformHook(chain);
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class ProcessorChain implements PerformHook, AutoCloseable {
+
+    private final Csound csound;
+    private volatile EngineInfo info;
+    private final Arena arena = Arena.ofShared();
+    private MemorySegment scratch;
+    private long allocatedBytes = 0;
+
+    private final HookGate gate = new HookGate();
+    private volatile Stage[] stages = new Stage[0];
+
+    private static final class Stage {
+        final String name;
+        final BlockProcessor processor;
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        Stage(String name, BlockProcessor processor) {
+            this.name = name;
+            this.processor = processor;
+        }
+    }
+
+    /**
+     * Creates a chain for a started Csound instance. Add the chain with
+     * csound.addPerformHook() to begin processing.
+     *
+     * @param csound started Csound instance
+     */
+    public ProcessorChain(Csound csound) {
+        this.csound = csound;
+        this.info = csound.getEngineInfo();
+        this.scratch = allocateScratch(info);
+    }
+
+    /**
+     * Appends a processor to the end of the chain.
+     *
+     * @param name      name used in timing reports
+     * @param processor processor to add
+     */
+    public synchronized void add(String name, BlockProcessor processor) {
+        processor.init(info);
+        Stage[] updated = Arrays.copyOf(stages, stages.length + 1);
+        updated[updated.length - 1] = new Stage(name, processor);
+        stages = updated;
+    }
+
+    /**
+     * Removes a processor from the chain.
+     *
+     * @param processor processor to remove
+     */
+    public synchronized void remove(BlockProcessor processor) {
+        stages = Arrays.stream(stages)
+                .filter(stage -> stage.processor != processor)
+                .toArray(Stage[]::new);
+    }
+
+    @Override
+    public void afterPerformKsmps(Csound csound) {
+        if (!gate.enter()) {
+            return;
+        }
+        try {
+            runStages(csound);
+        } finally {
+            gate.exit();
+        }
+    }
+
+    private void runStages(Csound csound) {
+        EngineInfo current = csound.getEngineInfo();
+        if (current != info) {
+            rebind(current);
+        }
+        MemorySegment spin = current.spin();
+        MemorySegment spout = current.spout();
+
+        for (Stage stage : stages) {
+            long start = System.nanoTime();
+            stage.processor.process(spin, spout, scratch, current);
+            long elapsed = System.nanoTime() - start;
+
+            stage.calls.lazySet(stage.calls.get() + 1);
+            stage.totalNanos.lazySet(stage.totalNanos.get() + elapsed);
+            if (elapsed > stage.maxNanos.get()) {
+                stage.maxNanos.lazySet(elapsed);
+            }
+        }
+    }
+
+    private MemorySegment allocateScratch(EngineInfo engine) {
+        long samples = (long) engine.ksmps() * Math.max(engine.nchnls(), engine.nchnlsInput());
+        MemorySegment segment = arena.allocate(Csound.getMyfltLayout().byteSize() * samples,
+                Csound.getMyfltLayout().byteAlignment());
+        allocatedBytes += segment.byteSize();
+        csound.memoryAccount().allocated(segment.byteSize());
+        return segment;
+    }
+
+    /**
+     * Switches to a newly started engine, growing the scratch buffer if the
+     * new engine's blocks are larger, and re-initialises every processor.
+     */
+    private synchronized void rebind(EngineInfo engine) {
+        long samples = (long) engine.ksmps() * Math.max(engine.nchnls(), engine.nchnlsInput());
+        if (Csound.getMyfltLayout().byteSize() * samples > scratch.byteSize()) {
+            scratch = allocateScratch(engine);
+        }
+        info = engine;
+        for (Stage stage : stages) {
+            stage.processor.init(engine);
+        }
+    }
+
+    /**
+     * Returns the timing totals of each stage in chain order.
+     *
+     * @return list of StageTiming
+     */
+    public List<StageTiming> getTimings() {
+        List<StageTiming> timings = new ArrayList<>();
+        for (Stage stage : stages) {
+            timings.add(new StageTiming(stage.name, stage.calls.get(),
+                    stage.totalNanos.get(), stage.maxNanos.get()));
+        }
+        return timings;
+    }
+
+    /**
+     * Removes the chain from its Csound instance, waits for a cycle in
+     * progress on the performing thread to finish running the stages and
+     * frees the scratch buffer. May be called from any thread except from
+     * within a stage; calling close() more than once has no effect.
+     */
+    @Override
+    public void close() {
+        csound.removePerformHook(this);
+        if (!gate.close()) {
+            return;
+        }
+        arena.close();
+        csound.memoryAccount().released(allocatedBytes);
+    }
+}
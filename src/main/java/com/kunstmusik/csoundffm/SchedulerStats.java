@@ -0,0 +1,122 @@
+/*
+    SchedulerStats.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * Statistics of one instance run by a {@link CsoundScheduler}.
+ *
+ * @param name             name the instance was added with
+ * @param realtime         true for realtime instances, false for offline
+ * @param blocks           number of blocks performed
+ * @param deadlineMisses   number of realtime blocks that finished after
+ *                         their deadline; always 0 for offline instances
+ * @param maxLatenessNanos largest amount a realtime block finished past its
+ *                         deadline
+ * @param busyNanos        total time spent in performKsmps()
+ * @param elapsedNanos     time since the instance was added
+ *
+ * @author Steven Yi
+ */
+public record SchedulerStats(String name, boolean realtime, long blocks, long deadlineMisses,
+        long maxLatenessNanos, long busyNanos, long elapsedNanos) {
+
+    /**
+     * Returns the name the instance was added with.
+     *
+     * @return instance name
+     */
+    @Override
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns whether the instance is scheduled as realtime.
+     *
+     * @return true for realtime instances, false for offline
+     */
+    @Override
+    public boolean realtime() {
+        return realtime;
+    }
+
+    /**
+     * Returns the number of blocks performed.
+     *
+     * @return number of blocks
+     */
+    @Override
+    public long blocks() {
+        return blocks;
+    }
+
+    /**
+     * Returns the number of realtime blocks that finished after their
+     * deadline.
+     *
+     * @return number of missed deadlines, always 0 for offline instances
+     */
+    @Override
+    public long deadlineMisses() {
+        return deadlineMisses;
+    }
+
+    /**
+     * Returns the largest amount a realtime block finished past its deadline.
+     *
+     * @return lateness in nanoseconds
+     */
+    @Override
+    public long maxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    /**
+     * Returns the total time spent in performKsmps().
+     *
+     * @return busy time in nanoseconds
+     */
+    @Override
+    public long busyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * Returns the time since the instance was added.
+     *
+     * @return elapsed time in nanoseconds
+     */
+    @Override
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the share of wall-clock time this instance has used.
+     *
+     * @return busyNanos / elapsedNanos, or 0 if no time has elapsed
+     */
+    public double utilization() {
+        return elapsedNanos == 0 ? 0 : (double) busyNanos / elapsedNanos;
+    }
+}
@@ -0,0 +1,374 @@
+/*
+    ScoreStream.java:
+
+    Copyright (C) 2024 Steven Yi
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a large score to Csound incrementally instead of compiling it in one
+ * piece.
+ *
+ * A background thread reads score lines from a file or iterator, parses the
+ * start time of each event and places it in a bounded queue, blocking while
+ * the queue is full. Before every control cycle the stream sends all queued
+ * events starting within lookahead seconds of getScoreTime() as a single
+ * eventString() call, with p2 rewritten relative to the current score time.
+ * Memory use is bounded by the queue capacity however long the score is.
+ * Lines are encoded to UTF-8 on the parser thread and each cycle's events are
+ * written into a reused native buffer, so sending does not allocate.
+ *
+ * Only i and f statements whose p2 is a plain number of seconds are
+ * supported, and they must appear in non-decreasing p2 order; an event whose
+ * time has already passed is sent to start immediately. The stream does not
+ * interpret t (tempo), s and b (sections and offsets), a (advance) or any
+ * other statement, nor p2 shorthand such as +, ., ^ and ramps. Such lines
+ * are dropped and each one is logged as a warning. Blank lines and ;
+ * comments are ignored, and an e statement ends the stream.
+ *
+ * <pre>
+ * // offline render; the orchestra or an "f 0 &lt;duration&gt;" event ends
+ * // the performance
+ * try (var score = ScoreStream.fromFile(path, 0.5, 4096, true)) {
+ *     csound.addPerformHook(score);
+ *     csound.perform();
+ *     csound.removePerformHook(score);
+ * }
+ * </pre>
+ *
+ * @author Steven Yi
+ */
+public class ScoreStream implements PerformHook, AutoCloseable {
+
+    private static final System.Logger LOGGER = System.getLogger(ScoreStream.class.getName());
+
+    private static final long WAIT_MILLIS = 100;
+    private static final long INITIAL_BATCH_BYTES = 64 * 1024;
+
+    // UTF-8 bytes of the line before and after p2
+    private record ScoreLine(double time, byte[] prefix, byte[] suffix) {
+    }
+
+    private final Iterator<String> lines;
+    private final AutoCloseable source;
+    private final double lookahead;
+    private final boolean waitForParser;
+    private final ArrayBlockingQueue<ScoreLine> queue;
+    private final Thread parserThread;
+
+    private volatile boolean parsed = false;
+    private volatile boolean running = true;
+
+    private volatile boolean done = false;
+
+    // batch buffer, only accessed from performing thread
+    private final Arena arena = Arena.ofShared();
+    private MemorySegment batch;
+    private long batchLength = 0;
+    private ScoreLine next = null;
+
+    /**
+     * Creates a stream reading score lines from an iterator and starts its
+     * parser thread.
+     *
+     * @param lines         score lines
+     * @param lookahead     seconds ahead of the current score time to send
+     *                      events
+     * @param capacity      maximum number of parsed events held in memory
+     * @param waitForParser for offline rendering only: if true, a control
+     *                      cycle waits for the parser whenever no parsed
+     *                      events are available, so that no event is sent
+     *                      late. This blocks the performing thread for as
+     *                      long as parsing takes and must not be used with an
+     *                      instance performing in real time. If false, the
+     *                      cycle never blocks and events the parser has not
+     *                      reached yet are sent late.
+     */
+    public ScoreStream(Iterator<String> lines, double lookahead, int capacity,
+            boolean waitForParser) {
+        this(lines, null, lookahead, capacity, waitForParser);
+    }
+
+    private ScoreStream(Iterator<String> lines, AutoCloseable source, double lookahead,
+            int capacity, boolean waitForParser) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.lines = lines;
+        this.source = source;
+        this.lookahead = lookahead;
+        this.waitForParser = waitForParser;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batch = arena.allocate(INITIAL_BATCH_BYTES);
+        this.parserThread = Thread.ofPlatform().name("csound-score-stream").daemon()
+                .start(this::parse);
+    }
+
+    /**
+     * Creates a stream reading a score file line by line. The file is closed
+     * when the stream is closed.
+     *
+     * @see #ScoreStream(Iterator, double, int, boolean)
+     */
+    public static ScoreStream fromFile(Path path, double lookahead, int capacity,
+            boolean waitForParser) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(path);
+        return new ScoreStream(reader.lines().iterator(), reader, lookahead, capacity,
+                waitForParser);
+    }
+
+    /**
+     * Returns whether every event of the score has been sent to Csound.
+     *
+     * @return true once the whole score has been sent
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    private void parse() {
+        long lineNumber = 0;
+        try {
+            while (running && lines.hasNext()) {
+                String line = lines.next();
+                lineNumber++;
+                int start = skipSpace(line, 0);
+                if (start == line.length() || line.charAt(start) == ';') {
+                    continue;
+                }
+                char statement = line.charAt(start);
+                if (statement == 'e') {
+                    break;
+                }
+                ScoreLine scoreLine = statement == 'i' || statement == 'f'
+                        ? parseEvent(line, start + 1)
+                        : null;
+                if (scoreLine == null) {
+                    LOGGER.log(System.Logger.Level.WARNING,
+                            "ScoreStream: dropping unsupported score statement at line {0}: {1}",
+                            lineNumber, line);
+                    continue;
+                }
+                queue.put(scoreLine);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (UncheckedIOException e) {
+            e.printStackTrace();
+        } finally {
+            parsed = true;
+        }
+    }
+
+    /**
+     * Locates p2 of an i or f statement. Returns null if the line has no
+     * numeric p2.
+     */
+    private static ScoreLine parseEvent(String line, int pos) {
+        // p1, which may be a quoted instrument name
+        int p1Start = skipSpace(line, pos);
+        if (p1Start == line.length()) {
+            return null;
+        }
+        int p1End;
+        if (line.charAt(p1Start) == '"') {
+            p1End = line.indexOf('"', p1Start + 1);
+            if (p1End < 0) {
+                return null;
+            }
+            p1End++;
+        } else {
+            p1End = skipToken(line, p1Start);
+        }
+
+        int p2Start = skipSpace(line, p1End);
+        int p2End = skipToken(line, p2Start);
+        if (p2Start == p2End) {
+            return null;
+        }
+        try {
+            double time = Double.parseDouble(line.substring(p2Start, p2End));
+            if (!Double.isFinite(time)) {
+                return null;
+            }
+            return new ScoreLine(time,
+                    line.substring(0, p2Start).getBytes(StandardCharsets.UTF_8),
+                    line.substring(p2End).getBytes(StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int skipSpace(String line, int pos) {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipToken(String line, int pos) {
+        while (pos < line.length() && !Character.isWhitespace(line.charAt(pos))
+                && line.charAt(pos) != ';') {
+            pos++;
+        }
+        return pos;
+    }
+
+    @Override
+    public void beforePerformKsmps(Csound csound) {
+        if (done) {
+            return;
+        }
+        double now = csound.getScoreTime();
+        double horizon = now + lookahead;
+
+        while (true) {
+            if (next == null) {
+                next = queue.poll();
+                if (next == null) {
+                    if (parsed && queue.isEmpty()) {
+                        done = true;
+                        break;
+                    }
+                    if (!waitForParser || !awaitNext()) {
+                        break;
+                    }
+                }
+            }
+            if (next.time() > horizon) {
+                break;
+            }
+            ScoreLine line = next;
+            next = null;
+            // prefix, up to 30 bytes of time, suffix, newline and terminator
+            ensureCapacity(line.prefix().length + line.suffix().length + 32);
+            append(line.prefix());
+            appendTime(line.time() - now);
+            append(line.suffix());
+            appendByte('\n');
+        }
+
+        if (batchLength > 0) {
+            appendByte(0);
+            csound.eventString(batch, 0);
+            batchLength = 0;
+        }
+    }
+
+    private void ensureCapacity(long bytes) {
+        // keep room for the terminator
+        long required = batchLength + bytes + 1;
+        if (required > batch.byteSize()) {
+            // rare; the old buffer stays in the arena until close()
+            MemorySegment grown = arena.allocate(Math.max(required, batch.byteSize() * 2));
+            MemorySegment.copy(batch, 0, grown, 0, batchLength);
+            batch = grown;
+        }
+    }
+
+    private void append(byte[] bytes) {
+        MemorySegment.copy(bytes, 0, batch, JAVA_BYTE, batchLength, bytes.length);
+        batchLength += bytes.length;
+    }
+
+    private void appendByte(int b) {
+        batch.set(JAVA_BYTE, batchLength++, (byte) b);
+    }
+
+    /**
+     * Appends a relative start time in fixed-point notation with nanosecond
+     * precision, since Csound's score reader does not accept every form
+     * Double.toString() produces.
+     */
+    private void appendTime(double seconds) {
+        long nanos = Math.max(0, Math.round(seconds * 1_000_000_000.0));
+        appendDigits(nanos / 1_000_000_000, 1);
+        appendByte('.');
+        appendDigits(nanos % 1_000_000_000, 9);
+    }
+
+    private void appendDigits(long value, int minDigits) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        for (int i = digits - 1; i >= 0; i--) {
+            batch.set(JAVA_BYTE, batchLength + i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        batchLength += digits;
+    }
+
+    /**
+     * Waits for the parser to produce the next event or finish. Only used in
+     * the offline wait mode.
+     *
+     * @return true if next is now set
+     */
+    private boolean awaitNext() {
+        try {
+            while (running && next == null && !(parsed && queue.isEmpty())) {
+                next = queue.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return next != null;
+    }
+
+    /**
+     * Stops the parser thread and closes the score file, if any. Remove the
+     * stream from its Csound instance before closing it.
+     */
+    @Override
+    public void close() {
+        running = false;
+        parserThread.interrupt();
+        try {
+            parserThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+        arena.close();
+        if (source != null) {
+            try {
+                source.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
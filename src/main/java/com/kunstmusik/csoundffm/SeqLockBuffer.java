@@ -0,0 +1,74 @@
+/*
+    SeqLockBuffer.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Single-writer snapshot buffer. The writer publishes a fixed number of
+ * doubles and readers copy out the latest complete snapshot, retrying if a
+ * publish was in progress. Neither side allocates or blocks.
+ *
+ * @author Steven Yi
+ */
+final class SeqLockBuffer {
+
+    private final double[] data;
+    private volatile long version = 0;
+
+    SeqLockBuffer(int size) {
+        this.data = new double[size];
+    }
+
+    int size() {
+        return data.length;
+    }
+
+    void publish(double[] src) {
+        long v = version;
+        version = v + 1;
+        VarHandle.storeStoreFence();
+        System.arraycopy(src, 0, data, 0, data.length);
+        version = v + 2;
+    }
+
+    /**
+     * Copies the latest snapshot into dest.
+     *
+     * @return version of the snapshot copied, 0 if nothing was published yet
+     */
+    long read(double[] dest) {
+        while (true) {
+            long v1 = version;
+            if ((v1 & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            System.arraycopy(data, 0, dest, 0, Math.min(dest.length, data.length));
+            VarHandle.loadLoadFence();
+            if (version == v1) {
+                return v1 >>> 1;
+            }
+        }
+    }
+}
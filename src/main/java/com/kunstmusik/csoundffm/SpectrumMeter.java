@@ -0,0 +1,201 @@
+/*
+    SpectrumMeter.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Decimated magnitude spectrum of the mono sum of all output channels.
+ * Samples are collected into Hann-windowed FFT frames with 50% overlap and
+ * each frame's magnitudes are reduced to a fixed number of logarithmically
+ * spaced bands, reported in dBFS. All FFT state is preallocated in init().
+ *
+ * @author Steven Yi
+ */
+public class SpectrumMeter implements AudioMeter {
+
+    private static final double MIN_FREQUENCY = 20.0;
+
+    private final int fftSize;
+    private final int bands;
+
+    private SeqLockBuffer snapshot;
+    private double[] published;
+
+    private double[] input;
+    private int inputCount;
+    private double[] window;
+    private double[] re;
+    private double[] im;
+    private double[] cos;
+    private double[] sin;
+    private int[] bitReverse;
+    private int[] bandStart;
+    private double scale;
+    private double magnitudeScale;
+
+    /**
+     * Creates a spectrum meter.
+     *
+     * @param fftSize FFT frame size; must be a power of two
+     * @param bands   number of output bands
+     */
+    public SpectrumMeter(int fftSize, int bands) {
+        if (fftSize < 2 || Integer.bitCount(fftSize) != 1) {
+            throw new IllegalArgumentException("fftSize must be a power of two: " + fftSize);
+        }
+        if (bands < 1) {
+            throw new IllegalArgumentException("bands must be at least 1");
+        }
+        this.fftSize = fftSize;
+        this.bands = bands;
+    }
+
+    @Override
+    public void init(EngineInfo info) {
+        int half = fftSize / 2;
+        input = new double[fftSize];
+        inputCount = 0;
+        re = new double[fftSize];
+        im = new double[fftSize];
+        window = new double[fftSize];
+        cos = new double[half];
+        sin = new double[half];
+        bitReverse = new int[fftSize];
+
+        double windowSum = 0;
+        for (int i = 0; i < fftSize; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / fftSize);
+            windowSum += window[i];
+        }
+        for (int i = 0; i < half; i++) {
+            cos[i] = Math.cos(-2.0 * Math.PI * i / fftSize);
+            sin[i] = Math.sin(-2.0 * Math.PI * i / fftSize);
+        }
+        int bits = Integer.numberOfTrailingZeros(fftSize);
+        for (int i = 0; i < fftSize; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        // band b covers bins [bandStart[b], bandStart[b + 1])
+        double nyquist = info.sr() / 2.0;
+        double binHz = info.sr() / fftSize;
+        double ratio = nyquist / MIN_FREQUENCY;
+        bandStart = new int[bands + 1];
+        for (int b = 0; b <= bands; b++) {
+            double hz = MIN_FREQUENCY * Math.pow(ratio, (double) b / bands);
+            bandStart[b] = Math.min(half, Math.max(1, (int) Math.round(hz / binHz)));
+        }
+        for (int b = 1; b <= bands; b++) {
+            if (bandStart[b] <= bandStart[b - 1]) {
+                bandStart[b] = Math.min(half, bandStart[b - 1] + 1);
+            }
+        }
+
+        scale = 1.0 / (info.zeroDBFS() * info.nchnls());
+        magnitudeScale = 2.0 / windowSum;
+        published = new double[bands];
+        snapshot = new SeqLockBuffer(bands);
+    }
+
+    @Override
+    public void process(MemorySegment block, int frames, int channels) {
+        for (int frame = 0; frame < frames; frame++) {
+            double sum = 0;
+            for (int ch = 0; ch < channels; ch++) {
+                sum += Csound.getMyflt(block, (long) frame * channels + ch);
+            }
+            input[inputCount++] = sum * scale;
+
+            if (inputCount == fftSize) {
+                analyseFrame();
+                int half = fftSize / 2;
+                System.arraycopy(input, half, input, 0, half);
+                inputCount = half;
+            }
+        }
+    }
+
+    private void analyseFrame() {
+        for (int i = 0; i < fftSize; i++) {
+            int j = bitReverse[i];
+            re[j] = input[i] * window[i];
+            im[j] = 0;
+        }
+
+        for (int size = 2; size <= fftSize; size <<= 1) {
+            int halfSize = size >>> 1;
+            int step = fftSize / size;
+            for (int start = 0; start < fftSize; start += size) {
+                for (int k = 0; k < halfSize; k++) {
+                    double wr = cos[k * step];
+                    double wi = sin[k * step];
+                    int a = start + k;
+                    int b = a + halfSize;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+
+        for (int band = 0; band < bands; band++) {
+            double max = 0;
+            int end = Math.max(bandStart[band + 1], bandStart[band] + 1);
+            for (int bin = bandStart[band]; bin < end && bin < fftSize / 2; bin++) {
+                double mag = re[bin] * re[bin] + im[bin] * im[bin];
+                if (mag > max) {
+                    max = mag;
+                }
+            }
+            double amplitude = Math.sqrt(max) * magnitudeScale;
+            published[band] = amplitude > 0 ? 20.0 * Math.log10(amplitude) : Double.NEGATIVE_INFINITY;
+        }
+        snapshot.publish(published);
+    }
+
+    /**
+     * Returns the lower edge frequency in Hz of a band.
+     *
+     * @param band band index
+     * @param sr   sample rate of the analysed instance
+     * @return frequency in Hz
+     */
+    public double getBandFrequency(int band, double sr) {
+        return bandStart[band] * sr / fftSize;
+    }
+
+    /**
+     * Copies the latest spectrum into dest, which must be at least bands long.
+     * Values are band magnitudes in dBFS. Does not allocate.
+     *
+     * @param dest destination array
+     * @return number of FFT frames published so far
+     */
+    public long read(double[] dest) {
+        return snapshot.read(dest);
+    }
+}
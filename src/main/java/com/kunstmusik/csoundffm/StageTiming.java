@@ -0,0 +1,45 @@
+/*
+    StageTiming.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+/**
+ * Timing totals of one {@link ProcessorChain} stage.
+ *
+ * @param name       name the stage was added with
+ * @param calls      number of blocks processed
+ * @param totalNanos total time spent in the stage
+ * @param maxNanos   longest time spent on a single block
+ *
+ * @author Steven Yi
+ */
+public record StageTiming(String name, long calls, long totalNanos, long maxNanos) {
+
+    /**
+     * Returns the mean time spent per block.
+     *
+     * @return mean nanoseconds per block, or 0 if no blocks were processed
+     */
+    public double averageNanos() {
+        return calls == 0 ? 0 : (double) totalNanos / calls;
+    }
+}
@@ -0,0 +1,388 @@
+/*
+    WorkerChannel.java:
+
+    Copyright (C) 2024 Steven Yi 
+
+    This file is part of CsoundFFM.
+
+    The CsoundFFM Library is free software; you can redistribute it
+    and/or modify it under the terms of the GNU Lesser General Public
+    License as published by the Free Software Foundation; either
+    version 2.1 of the License, or (at your option) any later version.
+
+    CsoundFFM is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with CsoundJNI; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+    02110-1301 USA
+ */
+package com.kunstmusik.csoundffm;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Memory-mapped file shared between a {@link CsoundWorker} and the child
+ * process running {@link CsoundWorkerMain}.
+ *
+ * <pre>
+ * offset  0  header: magic, status, ksmps, nchnls, nchnls_i, MYFLT size,
+ *            block slot count, audio bytes per buffer
+ * offset 64  submitted sequence (written by parent)
+ * offset 128 completed sequence (written by child)
+ * offset 192 shutdown flag (written by parent)
+ * offset 256 command ring head (written by parent)
+ * offset 320 command ring tail (written by child)
+ * offset 384 block ring: per slot a result word, spin and spout,
+ *            each on its own cache lines; then the command ring
+ * </pre>
+ *
+ * Audio moves through a ring of block slots. The parent writes input for
+ * block n into slot n % slots and publishes it by raising the submitted
+ * sequence; the child renders every submitted block in order, writes its
+ * output and result into the same slot and raises the completed sequence.
+ * The parent may submit up to slots blocks ahead of the output it has
+ * consumed, so the child can keep rendering while the parent reads earlier
+ * blocks. Commands carry the number of the block they must precede, and
+ * the child only drains commands stamped up to the block it is about to
+ * render. Each control word sits on its own cache line, and waiting spins
+ * briefly before parking, so no system calls are needed while both sides
+ * keep up.
+ *
+ * @author Steven Yi
+ */
+final class WorkerChannel implements AutoCloseable {
+
+    static final int MAGIC = 0x43534657;
+
+    static final int STATUS_STARTING = 0;
+    static final int STATUS_READY = 1;
+    static final int STATUS_FAILED = -1;
+
+    static final int CMD_SET_CHANNEL = 1;
+    static final int CMD_EVENT = 2;
+
+    static final int COMMAND_SLOTS = 256;
+    static final int COMMAND_BYTES = 1024;
+    static final int MAX_PAYLOAD = COMMAND_BYTES - 24;
+
+    private static final long OFF_MAGIC = 0;
+    private static final long OFF_STATUS = 4;
+    private static final long OFF_KSMPS = 8;
+    private static final long OFF_NCHNLS = 12;
+    private static final long OFF_NCHNLS_I = 16;
+    private static final long OFF_MYFLT = 20;
+    private static final long OFF_SLOTS = 24;
+    private static final long OFF_AUDIO_BYTES = 32;
+    private static final long OFF_SUBMITTED = 64;
+    private static final long OFF_COMPLETED = 128;
+    private static final long OFF_SHUTDOWN = 192;
+    private static final long OFF_HEAD = 256;
+    private static final long OFF_TAIL = 320;
+    private static final long OFF_BLOCKS = 384;
+
+    private static final long CACHE_LINE = 64;
+
+    private static final VarHandle INT = JAVA_INT.varHandle();
+    private static final VarHandle LONG = JAVA_LONG.varHandle();
+
+    private static final int SPIN_ITERATIONS = 2000;
+    private static final long PARK_NANOS = 20_000;
+    // check liveness of the other process every 64 parks
+    private static final int ALIVE_CHECK_MASK = 63;
+
+    private final Arena arena;
+    private final MemorySegment shared;
+    private final int slots;
+    private final long audioBytes;
+    private final long slotBytes;
+    private final long commandsOffset;
+    private final MemorySegment[] spins;
+    private final MemorySegment[] spouts;
+
+    private WorkerChannel(Arena arena, MemorySegment shared, int slots, long audioBytes) {
+        this.arena = arena;
+        this.shared = shared;
+        this.slots = slots;
+        this.audioBytes = audioBytes;
+        this.slotBytes = slotBytes(audioBytes);
+        this.commandsOffset = OFF_BLOCKS + slots * slotBytes;
+        this.spins = new MemorySegment[slots];
+        this.spouts = new MemorySegment[slots];
+        for (int i = 0; i < slots; i++) {
+            long base = OFF_BLOCKS + i * slotBytes + CACHE_LINE;
+            spins[i] = shared.asSlice(base, audioBytes);
+            spouts[i] = shared.asSlice(base + align(audioBytes), audioBytes);
+        }
+    }
+
+    private static long align(long bytes) {
+        return (bytes + CACHE_LINE - 1) / CACHE_LINE * CACHE_LINE;
+    }
+
+    private static long slotBytes(long audioBytes) {
+        return CACHE_LINE + 2 * align(audioBytes);
+    }
+
+    static long fileSize(int slots, long audioBytes) {
+        return OFF_BLOCKS + slots * slotBytes(audioBytes) + (long) COMMAND_SLOTS * COMMAND_BYTES;
+    }
+
+    /**
+     * Creates the shared file with the given ring size and capacity of each
+     * spin and spout buffer.
+     */
+    static WorkerChannel create(Path path, int slots, long audioBytes) throws IOException {
+        return map(path, slots, audioBytes, true);
+    }
+
+    /**
+     * Maps a shared file created by the parent, reading the ring geometry
+     * from its header.
+     */
+    static WorkerChannel open(Path path) throws IOException {
+        return map(path, 0, 0, false);
+    }
+
+    private static WorkerChannel map(Path path, int slots, long audioBytes, boolean create)
+            throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = create ? fileSize(slots, audioBytes) : channel.size();
+            MemorySegment shared = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+            if (create) {
+                shared.fill((byte) 0);
+                shared.set(JAVA_INT, OFF_SLOTS, slots);
+                shared.set(JAVA_LONG, OFF_AUDIO_BYTES, audioBytes);
+                INT.setRelease(shared, OFF_MAGIC, MAGIC);
+            } else {
+                if ((int) INT.getAcquire(shared, OFF_MAGIC) != MAGIC) {
+                    throw new IOException("Not a Csound worker channel: " + path);
+                }
+                slots = shared.get(JAVA_INT, OFF_SLOTS);
+                audioBytes = shared.get(JAVA_LONG, OFF_AUDIO_BYTES);
+                if (fileSize(slots, audioBytes) > size) {
+                    throw new IOException("Truncated Csound worker channel: " + path);
+                }
+            }
+            return new WorkerChannel(arena, shared, slots, audioBytes);
+        } catch (IOException | RuntimeException e) {
+            if (arena.scope().isAlive()) {
+                arena.close();
+            }
+            throw e;
+        }
+    }
+
+    int slots() {
+        return slots;
+    }
+
+    long audioBytes() {
+        return audioBytes;
+    }
+
+    MemorySegment spin(long sequence) {
+        return spins[(int) (sequence % slots)];
+    }
+
+    MemorySegment spout(long sequence) {
+        return spouts[(int) (sequence % slots)];
+    }
+
+    // HEADER
+
+    int status() {
+        return (int) INT.getAcquire(shared, OFF_STATUS);
+    }
+
+    void publishReady(int ksmps, int nchnls, int nchnlsInput, int myfltSize) {
+        shared.set(JAVA_INT, OFF_KSMPS, ksmps);
+        shared.set(JAVA_INT, OFF_NCHNLS, nchnls);
+        shared.set(JAVA_INT, OFF_NCHNLS_I, nchnlsInput);
+        shared.set(JAVA_INT, OFF_MYFLT, myfltSize);
+        INT.setRelease(shared, OFF_STATUS, STATUS_READY);
+    }
+
+    void publishFailed() {
+        INT.setRelease(shared, OFF_STATUS, STATUS_FAILED);
+    }
+
+    int ksmps() {
+        return shared.get(JAVA_INT, OFF_KSMPS);
+    }
+
+    int nchnls() {
+        return shared.get(JAVA_INT, OFF_NCHNLS);
+    }
+
+    int nchnlsInput() {
+        return shared.get(JAVA_INT, OFF_NCHNLS_I);
+    }
+
+    int myfltSize() {
+        return shared.get(JAVA_INT, OFF_MYFLT);
+    }
+
+    void requestShutdown() {
+        INT.setRelease(shared, OFF_SHUTDOWN, 1);
+    }
+
+    boolean shutdownRequested() {
+        return (int) INT.getAcquire(shared, OFF_SHUTDOWN) != 0;
+    }
+
+    // BLOCK RING
+
+    /** Number of blocks the parent has submitted input for. */
+    long submitted() {
+        return (long) LONG.getAcquire(shared, OFF_SUBMITTED);
+    }
+
+    /** Publishes input for all blocks below count. */
+    void submit(long count) {
+        LONG.setRelease(shared, OFF_SUBMITTED, count);
+    }
+
+    /** Number of blocks the child has rendered. */
+    long completed() {
+        return (long) LONG.getAcquire(shared, OFF_COMPLETED);
+    }
+
+    /** Publishes the output and result of block sequence. */
+    void complete(long sequence, int result) {
+        shared.set(JAVA_INT, OFF_BLOCKS + (sequence % slots) * slotBytes, result);
+        LONG.setRelease(shared, OFF_COMPLETED, sequence + 1);
+    }
+
+    /** Result of a completed block; valid until its slot is resubmitted. */
+    int result(long sequence) {
+        return shared.get(JAVA_INT, OFF_BLOCKS + (sequence % slots) * slotBytes);
+    }
+
+    /**
+     * Waits until the submitted count reaches target. Spins first, then
+     * parks, periodically checking alive between parks.
+     *
+     * @return true if target was reached, false if alive returned false
+     */
+    boolean awaitSubmitted(long target, BooleanSupplier alive) {
+        return await(OFF_SUBMITTED, target, alive);
+    }
+
+    boolean awaitCompleted(long target, BooleanSupplier alive) {
+        return await(OFF_COMPLETED, target, alive);
+    }
+
+    private boolean await(long offset, long target, BooleanSupplier alive) {
+        for (int i = 0; i < SPIN_ITERATIONS; i++) {
+            if ((long) LONG.getAcquire(shared, offset) >= target) {
+                return true;
+            }
+            Thread.onSpinWait();
+        }
+        int parks = 0;
+        while ((long) LONG.getAcquire(shared, offset) < target) {
+            if ((parks++ & ALIVE_CHECK_MASK) == 0 && !alive.getAsBoolean()) {
+                return false;
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return true;
+    }
+
+    // COMMAND RING (parent produces, child consumes)
+
+    /**
+     * Enqueues a command to apply before block sequence, waiting while the
+     * ring is full. Commands must be offered in non-decreasing block order.
+     *
+     * @return false if alive returned false while waiting
+     * @throws IllegalStateException if the ring is full of commands for
+     *                               blocks that have not been submitted
+     */
+    boolean offer(int type, String text, double value, long block, BooleanSupplier alive) {
+        byte[] payload = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+        if (payload.length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Command text longer than " + MAX_PAYLOAD + " bytes");
+        }
+        long head = (long) LONG.getAcquire(shared, OFF_HEAD);
+        long tail;
+        while (head - (tail = (long) LONG.getAcquire(shared, OFF_TAIL)) >= COMMAND_SLOTS) {
+            if (command(tail).get(JAVA_LONG, 16) >= submitted()) {
+                // the child only drains these once another block is submitted
+                throw new IllegalStateException(
+                        "Worker command queue is full; submit a block before queueing more");
+            }
+            if (!alive.getAsBoolean()) {
+                return false;
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        MemorySegment slot = command(head);
+        slot.set(JAVA_INT, 0, type);
+        slot.set(JAVA_INT, 4, payload.length);
+        slot.set(JAVA_DOUBLE, 8, value);
+        slot.set(JAVA_LONG, 16, block);
+        MemorySegment.copy(payload, 0, slot, JAVA_BYTE, 24, payload.length);
+        LONG.setRelease(shared, OFF_HEAD, head + 1);
+        return true;
+    }
+
+    private MemorySegment command(long index) {
+        return shared.asSlice(commandsOffset + (index % COMMAND_SLOTS) * COMMAND_BYTES, COMMAND_BYTES);
+    }
+
+    /** Receives commands drained from the ring. */
+    interface CommandHandler {
+        void command(int type, String text, double value);
+    }
+
+    /**
+     * Delivers the pending commands queued for blocks up to and including
+     * block sequence, in order. Later commands stay queued.
+     */
+    void drain(long sequence, CommandHandler handler) {
+        long tail = (long) LONG.getAcquire(shared, OFF_TAIL);
+        long head = (long) LONG.getAcquire(shared, OFF_HEAD);
+        while (tail < head) {
+            MemorySegment slot = command(tail);
+            if (slot.get(JAVA_LONG, 16) > sequence) {
+                break;
+            }
+            int type = slot.get(JAVA_INT, 0);
+            int length = slot.get(JAVA_INT, 4);
+            double value = slot.get(JAVA_DOUBLE, 8);
+            byte[] payload = new byte[length];
+            MemorySegment.copy(slot, JAVA_BYTE, 24, payload, 0, length);
+            tail++;
+            LONG.setRelease(shared, OFF_TAIL, tail);
+            handler.command(type, new String(payload, StandardCharsets.UTF_8), value);
+        }
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}